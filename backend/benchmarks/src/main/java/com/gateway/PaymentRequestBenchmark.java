@@ -0,0 +1,34 @@
+package com.gateway;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/** Body parsing and response building of POST /api/v1/payments, without the database writes. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PaymentRequestBenchmark {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final String body = "{\"amount\":5000,\"currency\":\"INR\",\"method\":\"card\",\"order_id\":\"order_12345\"}";
+
+    @Benchmark
+    public JsonNode parseRequest() throws Exception {
+        return mapper.readTree(body);
+    }
+
+    @Benchmark
+    public String buildResponse() throws Exception {
+        return mapper.writeValueAsString(Main.paymentResponse("pay_0123456789abcd", "order_12345", 5000, "INR", "card"));
+    }
+
+    /** The route's full CPU path through the same code the route runs: parse, mint an id, build and serialise the response. */
+    @Benchmark
+    public String createPaymentRoundTrip() throws Exception {
+        return Main.newPayment(body).response;
+    }
+}
@@ -0,0 +1,40 @@
+package com.gateway.jobs;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Webhook event bodies built by the payment and refund jobs, against an ObjectNode
+ * baseline, to show what the string concatenation saves.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WebhookPayloadBenchmark {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final String merchantId = "6f1c2c0e-4f6a-4b7e-9d43-2a3f1e5b7c11";
+
+    @Benchmark
+    public String paymentConcat() {
+        return ProcessPaymentJob.webhookData(merchantId, "success", "pay_0123456789abcd");
+    }
+
+    @Benchmark
+    public String refundConcat() {
+        return ProcessRefundJob.webhookData(merchantId, "processed", "rfnd_0123456789abcdef");
+    }
+
+    @Benchmark
+    public String paymentJackson() throws Exception {
+        ObjectNode event = mapper.createObjectNode();
+        event.put("merchant_id", merchantId);
+        event.put("event", "payment.success");
+        event.putObject("data").put("payment_id", "pay_0123456789abcd");
+        return mapper.writeValueAsString(event);
+    }
+}
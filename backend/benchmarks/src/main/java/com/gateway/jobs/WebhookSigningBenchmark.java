@@ -0,0 +1,35 @@
+package com.gateway.jobs;
+
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/** HMAC-SHA256 signing and hex encoding of webhook bodies, per body size. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WebhookSigningBenchmark {
+    @Param({"1", "50"})
+    int events;
+
+    private String body;
+
+    @Setup
+    public void setup() {
+        // One event, or a batched array as sent by WebhookBatcher
+        String event = ProcessPaymentJob.webhookData("6f1c2c0e-4f6a-4b7e-9d43-2a3f1e5b7c11", "success", "pay_0123456789abcd");
+        StringBuilder sb = new StringBuilder(events == 1 ? "" : "[");
+        for (int i = 0; i < events; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(event);
+        }
+        body = events == 1 ? sb.toString() : sb.append(']').toString();
+    }
+
+    @Benchmark
+    public String sign() {
+        return DeliverWebhookJob.calculateHMAC(body, "whsec_test_abc123");
+    }
+}
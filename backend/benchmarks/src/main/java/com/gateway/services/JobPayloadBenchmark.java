@@ -0,0 +1,53 @@
+package com.gateway.services;
+
+import org.openjdk.jmh.annotations.*;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue entry encoding and decoding through JobService's codec. An ArrayDeque stands in
+ * for the Redis list so enqueue/dequeue cost is measured without a server.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JobPayloadBenchmark {
+    @Param({"PROCESS_PAYMENT", "DELIVER_WEBHOOK"})
+    String type;
+
+    private JobPayload job;
+    private byte[] encoded;
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+
+    @Setup
+    public void setup() throws Exception {
+        String data = type.equals("PROCESS_PAYMENT") ? "pay_0123456789abcd"
+                : "{\"merchant_id\":\"6f1c2c0e-4f6a-4b7e-9d43-2a3f1e5b7c11\", \"event\":\"payment.success\", \"data\": {\"payment_id\":\"pay_0123456789abcd\"}}";
+        job = new JobPayload(type, data);
+        job.setId("0b7c5e9a-3f2d-4c1b-8e6a-9d4f2b1c7a30");
+        job.setMerchantId("6f1c2c0e-4f6a-4b7e-9d43-2a3f1e5b7c11");
+        job.setEnqueuedAt(System.currentTimeMillis());
+        job.setTraceId("4bf92f3577b34da6a3ce929d0e0e4736");
+        encoded = JobService.encode(job);
+    }
+
+    @Benchmark
+    public byte[] encode() throws Exception {
+        return JobService.encode(job);
+    }
+
+    @Benchmark
+    public JobPayload decode() throws Exception {
+        return JobService.parse(encoded);
+    }
+
+    /** RPUSH then the fetch script's LMOVE as the worker sees it, with the list held in memory. */
+    @Benchmark
+    public JobPayload enqueueDequeue() throws Exception {
+        queue.addLast(JobService.encode(job));
+        return JobService.parse(queue.pollFirst());
+    }
+}
@@ -2,27 +2,32 @@ package com.gateway;
 
 import static spark.Spark.*;
 import com.gateway.services.*;
+import com.gateway.jobs.DeliverWebhookJob;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.UUID;
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class Main {
     private static final ObjectMapper mapper = new ObjectMapper();
 
-    // Helper to dynamically find the ID for the test account
-    private static String getTestMerchantId(Connection conn) throws SQLException {
-        try (PreparedStatement stmt = conn.prepareStatement("SELECT id FROM merchants WHERE email = 'test@example.com'")) {
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) return rs.getString("id");
-            throw new SQLException("Test merchant configuration missing in database");
-        }
-    }
-
     public static void main(String[] args) {
         port(8080);
+        Database.init(2, 20);
+        Outbox.startRelay();
+        ApiKeys.startInvalidationListener();
+        PaymentEvents.startListener();
+        ReadCache.startInvalidationListener();
+        Admission.start();
+        Database.registerMetrics();
+        Metrics.gauge("payment_event_waiters", "Requests waiting on payment status events", PaymentEvents::waiting);
 
         // CORS Headers
         options("/*", (req, res) -> {
@@ -33,6 +38,7 @@ public class Main {
             return "OK";
         });
         before((req, res) -> {
+            RouteMetrics.start(req);
             res.header("Access-Control-Allow-Origin", "*");
             res.header("Access-Control-Request-Method", "GET, POST, PUT, DELETE, OPTIONS");
             res.header("Access-Control-Allow-Headers", "Content-Type, Authorization, X-Api-Key, Idempotency-Key");
@@ -42,8 +48,19 @@ public class Main {
         before("/api/v1/*", (req, res) -> {
             if (req.requestMethod().equals("OPTIONS")) return;
             if (req.pathInfo().equals("/api/v1/test/jobs/status")) return;
-            String apiKey = req.headers("X-Api-Key");
-            if (apiKey == null || !apiKey.startsWith("key_")) halt(401, "{\"error\":\"Unauthorized\"}");
+            Admission.admitClient(req, res);
+            // Hashed once here; the per-key rate limit reuses the hash
+            String keyHash = ApiKeys.hashKey(req.headers("X-Api-Key"));
+            String merchantId = ApiKeys.resolveHash(keyHash);
+            if (merchantId == null) halt(401, "{\"error\":\"Unauthorized\"}");
+            req.attribute("merchantId", merchantId);
+            req.attribute("apiKeyHash", keyHash);
+            Admission.admit(req, res);
+        });
+
+        afterAfter((req, res) -> {
+            Admission.release(req);
+            RouteMetrics.record(req, res);
         });
 
         // Global Exception Handler (Returns JSON instead of HTML on error)
@@ -56,86 +73,165 @@ public class Main {
         // 1. Create Payment
         post("/api/v1/payments", (req, res) -> {
             res.type("application/json");
-            Connection conn = Database.connect();
-            
-            // DYNAMIC LOOKUP: No hardcoding!
-            String merchantId = getTestMerchantId(conn);
+            String merchantId = req.attribute("merchantId");
 
             String idempotencyKey = req.headers("Idempotency-Key");
             if (idempotencyKey != null) {
-                try (PreparedStatement stmt = conn.prepareStatement("SELECT response, expires_at FROM idempotency_keys WHERE key = ? AND merchant_id = ?::uuid")) {
-                    stmt.setString(1, idempotencyKey);
+                String previous;
+                try {
+                    previous = Idempotency.begin(merchantId, idempotencyKey);
+                } catch (Idempotency.InProgressException e) {
+                    halt(409, "{\"error\": {\"code\": \"IDEMPOTENCY_CONFLICT\", \"description\": \"A request with this Idempotency-Key is still in progress\"}}");
+                    return null;
+                }
+                if (previous != null) {
+                    res.status(201);
+                    return previous;
+                }
+            }
+
+            try (Connection conn = Database.connect()) {
+                NewPayment payment = newPayment(req.body());
+                String jsonResponse = payment.response;
+
+                // Idempotency record, payment row and its processing job commit atomically
+                conn.setAutoCommit(false);
+                if (idempotencyKey != null && !Idempotency.record(conn, merchantId, idempotencyKey, jsonResponse)) {
+                    // Lost the race to a request that committed first (e.g. Redis was unavailable)
+                    conn.rollback();
+                    jsonResponse = Idempotency.stored(conn, merchantId, idempotencyKey);
+                    if (jsonResponse == null) throw new IllegalStateException("Idempotency record vanished during conflict");
+                    Idempotency.complete(merchantId, idempotencyKey, jsonResponse);
+                    res.status(201);
+                    return jsonResponse;
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO payments (id, merchant_id, order_id, amount, currency, method, status) VALUES (?, ?::uuid, ?, ?, ?, ?, 'pending')")) {
+                    stmt.setString(1, payment.id);
                     stmt.setString(2, merchantId);
-                    ResultSet rs = stmt.executeQuery();
-                    if (rs.next()) {
-                        if (rs.getTimestamp("expires_at").after(Timestamp.from(Instant.now()))) {
-                            res.status(201);
-                            conn.close();
-                            return rs.getString("response");
-                        } else conn.createStatement().execute("DELETE FROM idempotency_keys WHERE key = '" + idempotencyKey + "'");
-                    }
+                    stmt.setString(3, payment.orderId);
+                    stmt.setInt(4, payment.amount);
+                    stmt.setString(5, payment.currency);
+                    stmt.setString(6, payment.method);
+                    stmt.executeUpdate();
                 }
+                Outbox.add(conn, "PROCESS_PAYMENT", merchantId, payment.id);
+                conn.commit();
+                Outbox.wake();
+
+                if (idempotencyKey != null) Idempotency.complete(merchantId, idempotencyKey, jsonResponse);
+                res.status(201);
+                return jsonResponse;
+            } catch (Exception e) {
+                if (idempotencyKey != null) Idempotency.abandon(merchantId, idempotencyKey);
+                throw e;
             }
+        });
 
-            JsonNode body = mapper.readTree(req.body());
-            String paymentId = "pay_" + UUID.randomUUID().toString().substring(0, 14);
-            int amount = body.get("amount").asInt();
-            String currency = body.has("currency") ? body.get("currency").asText() : "INR";
-            String method = body.get("method").asText();
-            String orderId = body.get("order_id").asText();
+        // 1a. Get Payment
+        get("/api/v1/payments/:id", (req, res) -> {
+            res.type("application/json");
+            String payment = payment(req.attribute("merchantId"), req.params(":id"));
+            if (payment == null) halt(404, "Payment not found");
+            return payment;
+        });
 
-            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO payments (id, merchant_id, order_id, amount, currency, method, status) VALUES (?, ?::uuid, ?, ?, ?, ?, 'pending')")) {
-                stmt.setString(1, paymentId);
-                stmt.setString(2, merchantId);
-                stmt.setString(3, orderId);
-                stmt.setInt(4, amount);
-                stmt.setString(5, currency);
-                stmt.setString(6, method);
-                stmt.executeUpdate();
+        // 1b. Bulk create: per-item results and per-item idempotency keys
+        post("/api/v1/payments/batch", (req, res) -> {
+            res.type("application/json");
+            try {
+                return PaymentBatch.create(req.attribute("merchantId"), req.raw().getInputStream());
+            } catch (PaymentBatch.InvalidBatchException e) {
+                ObjectNode error = mapper.createObjectNode();
+                error.putObject("error").put("code", "BAD_REQUEST_ERROR").put("description", e.getMessage());
+                halt(400, mapper.writeValueAsString(error));
+                return null;
             }
+        });
 
-            JobService.enqueueJob("PROCESS_PAYMENT", paymentId);
+        // 1c. Payment status: Server-Sent Events when requested, otherwise a long-poll
+        get("/api/v1/payments/:id/events", (req, res) -> {
+            String paymentId = req.params(":id");
+            String merchantId = req.attribute("merchantId");
+            boolean sse = String.valueOf(req.headers("Accept")).contains("text/event-stream");
+            long waitMs = PaymentEvents.MAX_WAIT_MS;
+            if (!sse && req.queryParams("timeout") != null) {
+                try {
+                    waitMs = Math.min(waitMs, Math.max(0, Long.parseLong(req.queryParams("timeout")) * 1000));
+                } catch (NumberFormatException e) {
+                    halt(400, "{\"error\": {\"code\":\"BAD_REQUEST_ERROR\", \"description\":\"timeout must be a number of seconds\"}}");
+                }
+            }
+            if (!PaymentEvents.tryEnter()) {
+                res.header("Retry-After", "1");
+                halt(503, "{\"error\": {\"code\":\"TOO_MANY_WATCHERS\", \"description\":\"Too many open status streams, poll instead\"}}");
+            }
+            CompletableFuture<String> next = PaymentEvents.await(paymentId);
+            try {
+                // Registered before reading, so a transition in between still wakes us
+                String current = PaymentEvents.current(paymentId, merchantId);
+                if (current == null) halt(404, "Payment not found");
+                long deadline = System.currentTimeMillis() + waitMs;
 
-            ObjectNode response = mapper.createObjectNode();
-            response.put("id", paymentId);
-            response.put("order_id", orderId);
-            response.put("amount", amount);
-            response.put("currency", currency);
-            response.put("method", method);
-            response.put("status", "pending");
-            response.put("created_at", Instant.now().toString());
-            String jsonResponse = mapper.writeValueAsString(response);
+                if (!sse) {
+                    res.type("application/json");
+                    if (PaymentEvents.terminal(PaymentEvents.status(current))) return current;
+                    try {
+                        String event = next.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                        return event != null ? event : PaymentEvents.current(paymentId, merchantId);
+                    } catch (TimeoutException e) {
+                        return current;
+                    }
+                }
 
-            if (idempotencyKey != null) {
-                try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO idempotency_keys (key, merchant_id, response, expires_at) VALUES (?, ?::uuid, ?::jsonb, ?)")) {
-                    stmt.setString(1, idempotencyKey);
-                    stmt.setString(2, merchantId);
-                    stmt.setString(3, jsonResponse);
-                    stmt.setTimestamp(4, Timestamp.from(Instant.now().plusSeconds(86400)));
-                    stmt.executeUpdate();
+                res.raw().setContentType("text/event-stream");
+                res.raw().setHeader("Cache-Control", "no-cache");
+                OutputStream out = res.raw().getOutputStream();
+                out.write(("retry: 3000\n\nevent: status\ndata: " + current + "\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                String status = PaymentEvents.status(current);
+                while (!PaymentEvents.terminal(status) && System.currentTimeMillis() < deadline) {
+                    String event;
+                    try {
+                        event = next.get(Math.min(15_000, Math.max(1, deadline - System.currentTimeMillis())), TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        out.write(": keep-alive\n\n".getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        continue;
+                    }
+                    next = PaymentEvents.await(paymentId);
+                    // null means the subscription was re-established and events may have been missed
+                    if (event == null) event = PaymentEvents.current(paymentId, merchantId);
+                    if (event == null || PaymentEvents.status(event).equals(status)) continue;
+                    status = PaymentEvents.status(event);
+                    out.write(("event: status\ndata: " + event + "\n\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
                 }
+                // The client's EventSource reconnects after a timeout and gets the current status first
+                return "";
+            } finally {
+                PaymentEvents.cancel(paymentId, next);
+                PaymentEvents.exit();
             }
-            conn.close();
-            res.status(201);
-            return jsonResponse;
         });
 
         // 2. Capture
         post("/api/v1/payments/:id/capture", (req, res) -> {
             res.type("application/json");
             String paymentId = req.params(":id");
-            Connection conn = Database.connect();
-            try (PreparedStatement stmt = conn.prepareStatement("SELECT status FROM payments WHERE id = ?")) {
+            String merchantId = req.attribute("merchantId");
+            boolean captured;
+            try (Connection conn = Database.connect();
+                 PreparedStatement stmt = conn.prepareStatement("UPDATE payments SET captured = true, updated_at = CURRENT_TIMESTAMP WHERE id = ? AND merchant_id = ?::uuid AND status = 'success'")) {
                 stmt.setString(1, paymentId);
-                ResultSet rs = stmt.executeQuery();
-                if (!rs.next()) halt(404, "Payment not found");
-                if (!"success".equals(rs.getString("status"))) halt(400, "{\"error\": {\"code\": \"BAD_REQUEST_ERROR\", \"description\": \"Payment not in capturable state\"}}");
+                stmt.setString(2, merchantId);
+                captured = stmt.executeUpdate() > 0;
             }
-            try (PreparedStatement stmt = conn.prepareStatement("UPDATE payments SET captured = true, updated_at = CURRENT_TIMESTAMP WHERE id = ?")) {
-                stmt.setString(1, paymentId);
-                stmt.executeUpdate();
+            if (!captured) {
+                // Only the rejection needs to know why; the cached view answers that
+                if (payment(merchantId, paymentId) == null) halt(404, "Payment not found");
+                halt(400, "{\"error\": {\"code\": \"BAD_REQUEST_ERROR\", \"description\": \"Payment not in capturable state\"}}");
             }
-            conn.close();
+            ReadCache.invalidate(ReadCache.payment(merchantId, paymentId));
             return "{\"id\":\"" + paymentId + "\", \"status\":\"success\", \"captured\":true}";
         });
 
@@ -146,38 +242,47 @@ public class Main {
             JsonNode body = mapper.readTree(req.body());
             int amount = body.get("amount").asInt();
             String reason = body.has("reason") ? body.get("reason").asText() : "";
-            Connection conn = Database.connect();
-            
-            // DYNAMIC LOOKUP: Get the merchant_id associated with this payment
-            String merchantId = null;
-            try (PreparedStatement stmt = conn.prepareStatement("SELECT amount, status, merchant_id FROM payments WHERE id = ?")) {
-                stmt.setString(1, paymentId);
-                ResultSet rs = stmt.executeQuery();
-                if (!rs.next()) halt(404, "Payment not found");
-                if (!"success".equals(rs.getString("status"))) halt(400, "{\"error\": \"Payment must be successful\"}");
-                
-                merchantId = rs.getString("merchant_id"); // Get ID from DB
-                
-                int totalRefunded = 0;
-                try (PreparedStatement refStmt = conn.prepareStatement("SELECT SUM(amount) as total FROM refunds WHERE payment_id = ? AND status != 'failed'")) {
-                    refStmt.setString(1, paymentId);
-                    ResultSet refRs = refStmt.executeQuery();
-                    if (refRs.next()) totalRefunded = refRs.getInt("total");
-                }
-                if (amount + totalRefunded > rs.getInt("amount")) halt(400, "{\"error\": {\"code\":\"BAD_REQUEST_ERROR\", \"description\":\"Refund amount exceeds available amount\"}}");
-            }
-
             String refundId = "rfnd_" + UUID.randomUUID().toString().substring(0, 16);
-            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO refunds (id, payment_id, merchant_id, amount, reason, status) VALUES (?, ?, ?::uuid, ?, ?, 'pending')")) {
-                stmt.setString(1, refundId);
-                stmt.setString(2, paymentId);
-                stmt.setString(3, merchantId);
-                stmt.setInt(4, amount);
-                stmt.setString(5, reason);
-                stmt.executeUpdate();
+            String merchantId = req.attribute("merchantId");
+            if (amount <= 0) halt(400, "{\"error\": {\"code\":\"BAD_REQUEST_ERROR\", \"description\":\"Refund amount must be positive\"}}");
+            try (Connection conn = Database.connect()) {
+                // Refund row, its reservation against the payment and its processing job commit atomically
+                conn.setAutoCommit(false);
+                // Reserve the amount in one conditional update; the row lock serialises concurrent refunds
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "UPDATE payments SET refunded_amount = refunded_amount + ? WHERE id = ? AND merchant_id = ?::uuid AND status = 'success' AND amount - refunded_amount >= ?")) {
+                    stmt.setInt(1, amount);
+                    stmt.setString(2, paymentId);
+                    stmt.setString(3, merchantId);
+                    stmt.setInt(4, amount);
+                    if (stmt.executeUpdate() == 0) {
+                        // Diagnose on this connection from the current row; borrowing a second one while holding this could starve the pool
+                        String status = null;
+                        try (PreparedStatement check = conn.prepareStatement("SELECT status FROM payments WHERE id = ? AND merchant_id = ?::uuid")) {
+                            check.setString(1, paymentId);
+                            check.setString(2, merchantId);
+                            ResultSet rs = check.executeQuery();
+                            if (rs.next()) status = rs.getString("status");
+                        }
+                        conn.rollback();
+                        if (status == null) halt(404, "Payment not found");
+                        if (!"success".equals(status)) halt(400, "{\"error\": \"Payment must be successful\"}");
+                        halt(400, "{\"error\": {\"code\":\"BAD_REQUEST_ERROR\", \"description\":\"Refund amount exceeds available amount\"}}");
+                    }
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO refunds (id, payment_id, merchant_id, amount, reason, status) VALUES (?, ?, ?::uuid, ?, ?, 'pending')")) {
+                    stmt.setString(1, refundId);
+                    stmt.setString(2, paymentId);
+                    stmt.setString(3, merchantId);
+                    stmt.setInt(4, amount);
+                    stmt.setString(5, reason);
+                    stmt.executeUpdate();
+                }
+                Outbox.add(conn, "PROCESS_REFUND", merchantId, refundId);
+                conn.commit();
             }
-            JobService.enqueueJob("PROCESS_REFUND", refundId);
-            conn.close();
+            ReadCache.invalidate(ReadCache.payment(merchantId, paymentId));
+            Outbox.wake();
             res.status(201);
             return "{\"id\":\"" + refundId + "\", \"payment_id\":\""+paymentId+"\", \"amount\":"+amount+", \"reason\":\""+reason+"\", \"status\":\"pending\", \"created_at\":\""+Instant.now().toString()+"\"}";
         });
@@ -186,65 +291,172 @@ public class Main {
         get("/api/v1/refunds/:id", (req, res) -> {
             res.type("application/json");
             String refundId = req.params(":id");
-            Connection conn = Database.connect();
-            ObjectNode response = mapper.createObjectNode();
-            try (PreparedStatement stmt = conn.prepareStatement("SELECT * FROM refunds WHERE id = ?")) {
-                stmt.setString(1, refundId);
-                ResultSet rs = stmt.executeQuery();
-                if (rs.next()) {
+            String merchantId = req.attribute("merchantId");
+            String refund = ReadCache.get(ReadCache.refund(merchantId, refundId), () -> {
+                try (Connection conn = Database.connect();
+                     PreparedStatement stmt = conn.prepareStatement("SELECT id, payment_id, amount, status, processed_at FROM refunds WHERE id = ? AND merchant_id = ?::uuid")) {
+                    stmt.setString(1, refundId);
+                    stmt.setString(2, merchantId);
+                    ResultSet rs = stmt.executeQuery();
+                    if (!rs.next()) return null;
+                    ObjectNode response = mapper.createObjectNode();
                     response.put("id", rs.getString("id"));
                     response.put("payment_id", rs.getString("payment_id"));
                     response.put("amount", rs.getInt("amount"));
                     response.put("status", rs.getString("status"));
                     response.put("processed_at", rs.getString("processed_at"));
-                } else halt(404, "Refund not found");
-            }
-            conn.close();
-            return mapper.writeValueAsString(response);
+                    return mapper.writeValueAsString(response);
+                }
+            });
+            if (refund == null) halt(404, "Refund not found");
+            return refund;
         });
 
         // 5. Webhooks
         get("/api/v1/webhooks", (req, res) -> {
             res.type("application/json");
-            Connection conn = Database.connect();
-            StringBuilder json = new StringBuilder("{\"data\":[");
-            try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT id, event, status, attempts, response_code FROM webhook_logs ORDER BY created_at DESC LIMIT 10")) {
-                boolean first = true;
-                while (rs.next()) {
-                    if (!first) json.append(",");
-                    json.append(String.format("{\"id\":\"%s\",\"event\":\"%s\",\"status\":\"%s\",\"attempts\":%d,\"response_code\":%d}",
-                        rs.getString("id"), rs.getString("event"), rs.getString("status"), rs.getInt("attempts"), rs.getInt("response_code")));
-                    first = false;
-                }
+            WebhookLogs.Query query;
+            try {
+                query = new WebhookLogs.Query(req.attribute("merchantId"))
+                        .status(req.queryParams("status"))
+                        .event(req.queryParams("event"))
+                        .from(req.queryParams("from"))
+                        .to(req.queryParams("to"))
+                        .limit(req.queryParams("limit"))
+                        .cursor(req.queryParams("cursor"));
+            } catch (WebhookLogs.InvalidQueryException e) {
+                ObjectNode error = mapper.createObjectNode();
+                error.putObject("error").put("code", "BAD_REQUEST_ERROR").put("description", e.getMessage());
+                halt(400, mapper.writeValueAsString(error));
+                return null;
             }
-            json.append("]}");
-            conn.close();
-            return json.toString();
+            // The page is already written; Spark appends this empty body to the still-open stream
+            WebhookLogs.stream(query, res.raw().getOutputStream());
+            return "";
         });
 
         // 6. Retry
         post("/api/v1/webhooks/:id/retry", (req, res) -> {
             res.type("application/json");
             String logId = req.params(":id");
-            Connection conn = Database.connect();
-            try (PreparedStatement stmt = conn.prepareStatement("UPDATE webhook_logs SET status = 'pending', attempts = 0, next_retry_at = NULL WHERE id = ?::uuid")) {
-                stmt.setString(1, logId);
-                if (stmt.executeUpdate() == 0) halt(404, "Log not found");
-            }
-            String payload = "";
-            try (PreparedStatement stmt = conn.prepareStatement("SELECT payload FROM webhook_logs WHERE id = ?::uuid")) {
-                stmt.setString(1, logId);
-                ResultSet rs = stmt.executeQuery();
-                if (rs.next()) payload = rs.getString("payload");
+            try (Connection conn = Database.connect()) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement stmt = conn.prepareStatement("UPDATE webhook_logs SET status = 'pending', attempts = 0, next_retry_at = NULL WHERE id = ?::uuid AND merchant_id = ?::uuid")) {
+                    stmt.setString(1, logId);
+                    stmt.setString(2, req.attribute("merchantId"));
+                    if (stmt.executeUpdate() == 0) halt(404, "Log not found");
+                }
+                String payload = "";
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT payload FROM webhook_logs WHERE id = ?::uuid")) {
+                    stmt.setString(1, logId);
+                    ResultSet rs = stmt.executeQuery();
+                    if (rs.next()) payload = rs.getString("payload");
+                }
+                Outbox.add(conn, "DELIVER_WEBHOOK", req.attribute("merchantId"), DeliverWebhookJob.retry(logId, 1, payload));
+                conn.commit();
             }
-            JobService.enqueueJob("DELIVER_WEBHOOK", payload);
-            conn.close();
+            Outbox.wake();
             return "{\"id\":\"" + logId + "\", \"status\":\"pending\", \"message\":\"Retry scheduled\"}";
         });
 
-        // 7. Status
+        // 7. Rotate API key: issues a new key and revokes the one used for this call
+        post("/api/v1/api-keys/rotate", (req, res) -> {
+            res.type("application/json");
+            ObjectNode response = mapper.createObjectNode();
+            response.put("key", ApiKeys.rotate(req.attribute("merchantId"), req.headers("X-Api-Key")));
+            res.status(201);
+            return mapper.writeValueAsString(response);
+        });
+
+        // 8. Status
         get("/api/v1/test/jobs/status", (req, res) -> "{\"status\": \"worker_running\"}");
+
+        // 9. Connection pool stats
+        get("/api/v1/test/db/pool", (req, res) -> {
+            res.type("application/json");
+            return mapper.writeValueAsString(Database.poolStats());
+        });
+
+        // 10. Prometheus metrics (unauthenticated, outside /api/v1)
+        get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4; charset=utf-8");
+            return Metrics.render();
+        });
+
+        RouteMetrics.init();
         
         System.out.println("API Service Started on Port 8080");
     }
-}
\ No newline at end of file
+
+    /** A merchant's payment as served by GET /payments/:id, or null if not found. */
+    private static String payment(String merchantId, String paymentId) throws Exception {
+        return ReadCache.get(ReadCache.payment(merchantId, paymentId), () -> {
+            try (Connection conn = Database.connect();
+                 PreparedStatement stmt = conn.prepareStatement(
+                         "SELECT id, order_id, amount, currency, method, status, captured, refunded_amount, error_description, created_at, updated_at FROM payments WHERE id = ? AND merchant_id = ?::uuid")) {
+                stmt.setString(1, paymentId);
+                stmt.setString(2, merchantId);
+                ResultSet rs = stmt.executeQuery();
+                if (!rs.next()) return null;
+                ObjectNode response = mapper.createObjectNode();
+                response.put("id", rs.getString("id"));
+                response.put("order_id", rs.getString("order_id"));
+                response.put("amount", rs.getInt("amount"));
+                response.put("currency", rs.getString("currency"));
+                response.put("method", rs.getString("method"));
+                response.put("status", rs.getString("status"));
+                response.put("captured", rs.getBoolean("captured"));
+                response.put("amount_refunded", rs.getInt("refunded_amount"));
+                response.put("error_description", rs.getString("error_description"));
+                Timestamp createdAt = rs.getTimestamp("created_at");
+                Timestamp updatedAt = rs.getTimestamp("updated_at");
+                response.put("created_at", createdAt != null ? createdAt.toInstant().toString() : null);
+                response.put("updated_at", updatedAt != null ? updatedAt.toInstant().toString() : null);
+                return mapper.writeValueAsString(response);
+            }
+        });
+    }
+
+    /** A payment parsed from a POST /payments body, with its new id and serialised response. */
+    static final class NewPayment {
+        final String id;
+        final String orderId;
+        final int amount;
+        final String currency;
+        final String method;
+        final String response;
+
+        NewPayment(String id, String orderId, int amount, String currency, String method, String response) {
+            this.id = id;
+            this.orderId = orderId;
+            this.amount = amount;
+            this.currency = currency;
+            this.method = method;
+            this.response = response;
+        }
+    }
+
+    /** The create route's CPU path before any database work: parse the body, mint the id, build the response. */
+    static NewPayment newPayment(String requestBody) throws Exception {
+        JsonNode body = mapper.readTree(requestBody);
+        String paymentId = "pay_" + UUID.randomUUID().toString().substring(0, 14);
+        int amount = body.get("amount").asInt();
+        String currency = body.has("currency") ? body.get("currency").asText() : "INR";
+        String method = body.get("method").asText();
+        String orderId = body.get("order_id").asText();
+        String response = mapper.writeValueAsString(paymentResponse(paymentId, orderId, amount, currency, method));
+        return new NewPayment(paymentId, orderId, amount, currency, method, response);
+    }
+
+    static ObjectNode paymentResponse(String paymentId, String orderId, int amount, String currency, String method) {
+        ObjectNode response = mapper.createObjectNode();
+        response.put("id", paymentId);
+        response.put("order_id", orderId);
+        response.put("amount", amount);
+        response.put("currency", currency);
+        response.put("method", method);
+        response.put("status", "pending");
+        response.put("created_at", Instant.now().toString());
+        return response;
+    }
+}
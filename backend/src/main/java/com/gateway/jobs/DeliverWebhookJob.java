@@ -1,94 +1,137 @@
 package com.gateway.jobs;
 
 import com.gateway.services.Database;
+import com.gateway.services.JobService;
+import com.gateway.services.TimeUuid;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.sql.*;
-import java.time.Duration;
-import java.time.Instant;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DeliverWebhookJob {
     private static final ObjectMapper mapper = new ObjectMapper();
-    private static final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private static final long CONFIG_TTL_MS = 60_000;
+    private static final ConcurrentHashMap<String, MerchantConfig> configs = new ConcurrentHashMap<>();
 
-    public static void execute(String jobDataJson) {
-        Connection conn = null;
-        try {
-            conn = Database.connect();
-            JsonNode data = mapper.readTree(jobDataJson);
-            String merchantId = data.get("merchant_id").asText();
-            String event = data.get("event").asText();
-            
-            // 1. Fetch Config
-            String webhookUrl = null;
-            String webhookSecret = null;
-            try (PreparedStatement stmt = conn.prepareStatement("SELECT webhook_url, webhook_secret FROM merchants WHERE id = ?::uuid")) {
-                stmt.setString(1, merchantId);
-                ResultSet rs = stmt.executeQuery();
-                if (rs.next()) {
-                    webhookUrl = rs.getString("webhook_url");
-                    webhookSecret = rs.getString("webhook_secret");
-                }
+    static final class MerchantConfig {
+        final String url;
+        final String secret;
+        final int batchSize;
+        final int batchWindowMs;
+        final long loadedAt = System.currentTimeMillis();
+        MerchantConfig(String url, String secret, int batchSize, int batchWindowMs) {
+            this.url = url;
+            this.secret = secret;
+            this.batchSize = batchSize;
+            this.batchWindowMs = batchWindowMs;
+        }
+        boolean batched() { return batchSize > 1; }
+    }
+
+    /**
+     * Starts the delivery and returns once the request is in flight. The returned future
+     * completes after the outcome is written to webhook_logs, which is when the job may be acked.
+     *
+     * Job data is either a bare event payload (first attempt) or a {@link #retry} envelope
+     * carrying the log row id and attempt number, so every attempt updates the same row.
+     * An envelope attempt is claimed on the row before sending, so a duplicate copy of the
+     * same attempt is dropped instead of delivered twice. First attempts for merchants with batching enabled go through {@link WebhookBatcher}.
+     */
+    public static CompletableFuture<Void> execute(String jobDataJson) throws Exception {
+        JsonNode data = mapper.readTree(jobDataJson);
+        if (data.has("log_id") && data.has("payload")) {
+            JsonNode payload = data.get("payload");
+            // A retried batch log row carries the original event array
+            JsonNode first = payload.isArray() ? payload.get(0) : payload;
+            String merchantId = first.get("merchant_id").asText();
+            MerchantConfig config = config(merchantId);
+            if (config.url == null) return CompletableFuture.completedFuture(null);
+            String logId = data.get("log_id").asText();
+            int attempt = data.path("attempt").asInt(1);
+            if (!WebhookLogWriter.claim(logId, attempt)) {
+                System.out.println("Webhook " + logId + ": attempt " + attempt + " already made, skipping duplicate");
+                return CompletableFuture.completedFuture(null);
             }
+            return deliver(logId, attempt, merchantId,
+                    payload.isArray() ? WebhookBatcher.EVENT : first.get("event").asText(), mapper.writeValueAsString(payload), config);
+        }
 
-            if (webhookUrl == null) return; // Skip if no URL
+        String merchantId = data.get("merchant_id").asText();
+        String event = data.get("event").asText();
 
-            // 2. Generate HMAC
-            String signature = calculateHMAC(jobDataJson, webhookSecret);
+        // 1. Fetch Config
+        MerchantConfig config = config(merchantId);
+        if (config.url == null) return CompletableFuture.completedFuture(null); // Skip if no URL
 
-            // 3. Send HTTP Request
-            int responseCode = 0;
-            String responseBody = "";
-            boolean success = false;
-            try {
-                HttpRequest request = HttpRequest.newBuilder()
-                        .uri(URI.create(webhookUrl))
-                        .header("Content-Type", "application/json")
-                        .header("X-Webhook-Signature", signature)
-                        .POST(HttpRequest.BodyPublishers.ofString(jobDataJson))
-                        .build();
-                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-                responseCode = response.statusCode();
-                responseBody = response.body();
-                success = (responseCode >= 200 && responseCode < 300);
-            } catch (Exception e) {
-                responseCode = 500;
-                responseBody = "Network Error: " + e.getMessage();
-            }
+        // 2. Coalesce with other events for this merchant if it opted in
+        if (config.batched()) return WebhookBatcher.add(merchantId, config, event, jobDataJson);
+        return deliver(TimeUuid.random(), 1, merchantId, event, jobDataJson, config);
+    }
+
+    /** Sends one signed payload and records the attempt in the log row {@code logId}. */
+    static CompletableFuture<Void> deliver(String logId, int attempt, String merchantId, String event,
+                                           String payloadJson, MerchantConfig config) {
+        // 1. Generate HMAC
+        String signature = calculateHMAC(payloadJson, config.secret);
 
-            // 4. Update Logs & Retry Logic
-            // Note: For simplicity, we insert a new log. In production, we'd update existing if retry.
-            String sql = "INSERT INTO webhook_logs (merchant_id, event, payload, status, attempts, last_attempt_at, next_retry_at, response_code, response_body) VALUES (?::uuid, ?, ?::jsonb, ?, ?, CURRENT_TIMESTAMP, ?, ?, ?)";
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, merchantId);
-                stmt.setString(2, event);
-                stmt.setString(3, jobDataJson);
-                stmt.setString(4, success ? "success" : "pending");
-                stmt.setInt(5, 1); // Attempt #1
-                
-                Timestamp nextRetry = null;
-                if (!success) {
-                    // Logic: 1m, 5m, 30m, 2h. 
-                    // Testing mode logic is handled inside PaymentWorker.startRetryPoller or here
-                    nextRetry = Timestamp.from(Instant.now().plusSeconds(60)); 
+        // 2. Send HTTP Request (no DB connection is held while waiting)
+        return WebhookDispatcher.send(merchantId, config.url, payloadJson, signature).thenCompose(result -> {
+            // 3. Update the log row, then schedule the next attempt with backoff
+            String status = "success";
+            Timestamp nextRetry = null;
+            long dueAt = 0;
+            if (!result.success()) {
+                if (attempt < WebhookRetryPolicy.maxAttempts()) {
+                    status = "pending";
+                    dueAt = System.currentTimeMillis() + WebhookRetryPolicy.delayMs(attempt);
+                    nextRetry = new Timestamp(dueAt);
+                } else {
+                    status = "failed";
                 }
-                stmt.setTimestamp(6, nextRetry);
-                stmt.setInt(7, responseCode);
-                stmt.setString(8, responseBody);
-                stmt.executeUpdate();
             }
-        } catch (Exception e) { e.printStackTrace(); } 
-        finally { try { if (conn != null) conn.close(); } catch (SQLException e) {} }
+            long retryAt = dueAt;
+            return WebhookLogWriter.append(new WebhookLogWriter.Entry(logId, merchantId, event, payloadJson,
+                    status, attempt, nextRetry, result.statusCode, result.body))
+                .thenRun(() -> {
+                    if (retryAt > 0) JobService.scheduleJob("DELIVER_WEBHOOK", merchantId, retry(logId, attempt + 1, payloadJson), retryAt);
+                });
+        });
+    }
+
+    /** Job data for a delivery attempt that belongs to an existing webhook_logs row. */
+    public static String retry(String logId, int attempt, String payloadJson) {
+        try {
+            ObjectNode envelope = mapper.createObjectNode();
+            envelope.put("log_id", logId);
+            envelope.put("attempt", attempt);
+            envelope.set("payload", mapper.readTree(payloadJson));
+            return mapper.writeValueAsString(envelope);
+        } catch (Exception e) { throw new RuntimeException(e); }
+    }
+
+    private static MerchantConfig config(String merchantId) throws SQLException {
+        MerchantConfig cached = configs.get(merchantId);
+        if (cached != null && System.currentTimeMillis() - cached.loadedAt < CONFIG_TTL_MS) return cached;
+        MerchantConfig loaded = new MerchantConfig(null, null, 0, 0);
+        try (Connection conn = Database.connect();
+             PreparedStatement stmt = conn.prepareStatement("SELECT webhook_url, webhook_secret, webhook_batch_size, webhook_batch_window_ms FROM merchants WHERE id = ?::uuid")) {
+            stmt.setString(1, merchantId);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                loaded = new MerchantConfig(rs.getString("webhook_url"), rs.getString("webhook_secret"),
+                        rs.getInt("webhook_batch_size"), rs.getInt("webhook_batch_window_ms"));
+            }
+        }
+        configs.put(merchantId, loaded);
+        return loaded;
     }
 
-    private static String calculateHMAC(String data, String secret) {
+    static String calculateHMAC(String data, String secret) {
         try {
             Mac mac = Mac.getInstance("HmacSHA256");
             mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
@@ -98,4 +141,4 @@ public class DeliverWebhookJob {
             return sb.toString();
         } catch (Exception e) { throw new RuntimeException(e); }
     }
-}
\ No newline at end of file
+}
@@ -1,44 +1,63 @@
 package com.gateway.jobs;
 
+import com.gateway.services.Acquirer;
+import com.gateway.services.Continuation;
 import com.gateway.services.Database;
-import com.gateway.services.JobService;
+import com.gateway.services.Outbox;
+import com.gateway.services.PaymentEvents;
+import com.gateway.services.ReadCache;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 
+/**
+ * Authorizes a pending payment. The job runs in steps: the first submits the payment to the
+ * acquirer and returns a {@link Continuation} for when the response is due, releasing the
+ * worker thread and connection; the resumed run (with the acquirer's state) records the
+ * outcome. Returns null once the payment is final.
+ */
 public class ProcessPaymentJob {
-    public static void execute(String paymentId) {
-        System.out.println("Processing Payment: " + paymentId);
-        try (Connection conn = Database.connect()) {
-            String method = "card";
-            String merchantId = null;
-            
-            try (PreparedStatement stmt = conn.prepareStatement("SELECT method, merchant_id FROM payments WHERE id = ?")) {
-                stmt.setString(1, paymentId);
-                ResultSet rs = stmt.executeQuery();
-                if (rs.next()) {
-                    method = rs.getString("method");
-                    merchantId = rs.getString("merchant_id");
-                } else return;
-            }
+    public static Continuation execute(String paymentId, String state) throws Exception {
+        if (state == null) System.out.println("Processing Payment: " + paymentId);
+        String method = "card";
+        String merchantId = null;
+        int amount = 0;
 
-            // Simulate Delay
-            Thread.sleep(5000 + (long)(Math.random() * 5000));
+        try (Connection conn = Database.connect();
+             PreparedStatement stmt = conn.prepareStatement("SELECT method, merchant_id, amount, status FROM payments WHERE id = ?")) {
+            stmt.setString(1, paymentId);
+            ResultSet rs = stmt.executeQuery();
+            if (!rs.next() || !"pending".equals(rs.getString("status"))) return null;
+            method = rs.getString("method");
+            merchantId = rs.getString("merchant_id");
+            amount = rs.getInt("amount");
+        }
 
-            // Determine Success
-            boolean success = "upi".equalsIgnoreCase(method) ? Math.random() < 0.90 : Math.random() < 0.95;
-            String status = success ? "success" : "failed";
+        // Authorize, or park until the acquirer's response is due
+        Acquirer.Result result = Acquirer.get().authorize(paymentId, method, amount, state);
+        if (result.isPending()) return Continuation.resumeAt(result.resumeAtMillis, result.state);
+        String status = result.success ? "success" : "failed";
 
-            // Update DB
-            try (PreparedStatement stmt = conn.prepareStatement("UPDATE payments SET status = ?, updated_at = CURRENT_TIMESTAMP WHERE id = ?")) {
+        // Update DB and queue the webhook in one transaction; the status guard keeps a redelivered
+        // step from finalizing twice, so the webhook must commit with the status or never be sent
+        try (Connection conn = Database.connect()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement("UPDATE payments SET status = ?, error_description = ?, updated_at = CURRENT_TIMESTAMP WHERE id = ? AND status = 'pending'")) {
                 stmt.setString(1, status);
-                stmt.setString(2, paymentId);
-                stmt.executeUpdate();
+                stmt.setString(2, result.errorDescription);
+                stmt.setString(3, paymentId);
+                if (stmt.executeUpdate() == 0) return null;
             }
+            Outbox.add(conn, "DELIVER_WEBHOOK", merchantId, webhookData(merchantId, status, paymentId));
+            conn.commit();
+        }
+        Outbox.wake();
+        ReadCache.invalidate(ReadCache.payment(merchantId, paymentId));
+        PaymentEvents.publish(paymentId, merchantId, status);
+        return null;
+    }
 
-            // Enqueue Webhook
-            String webhookData = "{\"merchant_id\":\"" + merchantId + "\", \"event\":\"payment." + status + "\", \"data\": {\"payment_id\":\"" + paymentId + "\"}}";
-            JobService.enqueueJob("DELIVER_WEBHOOK", webhookData);
-        } catch (Exception e) { e.printStackTrace(); }
+    static String webhookData(String merchantId, String status, String paymentId) {
+        return "{\"merchant_id\":\"" + merchantId + "\", \"event\":\"payment." + status + "\", \"data\": {\"payment_id\":\"" + paymentId + "\"}}";
     }
-}
\ No newline at end of file
+}
@@ -1,35 +1,79 @@
 package com.gateway.jobs;
 
+import com.gateway.services.Acquirer;
+import com.gateway.services.Continuation;
 import com.gateway.services.Database;
-import com.gateway.services.JobService;
+import com.gateway.services.Outbox;
+import com.gateway.services.ReadCache;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 
+/** Submits a pending refund to the acquirer; runs in steps like {@link ProcessPaymentJob}. */
 public class ProcessRefundJob {
-    public static void execute(String refundId) {
-        System.out.println("Processing Refund: " + refundId);
+    public static Continuation execute(String refundId, String state) throws Exception {
+        if (state == null) System.out.println("Processing Refund: " + refundId);
+        String merchantId = null;
+        String paymentId = null;
+        int amount = 0;
+        try (Connection conn = Database.connect();
+             PreparedStatement stmt = conn.prepareStatement("SELECT merchant_id, payment_id, amount, status FROM refunds WHERE id = ?")) {
+            stmt.setString(1, refundId);
+            ResultSet rs = stmt.executeQuery();
+            if (!rs.next() || !"pending".equals(rs.getString("status"))) return null;
+            merchantId = rs.getString("merchant_id");
+            paymentId = rs.getString("payment_id");
+            amount = rs.getInt("amount");
+        }
+
+        // Submit to Acquirer, or park until its response is due
+        Acquirer.Result result = Acquirer.get().refund(refundId, amount, state);
+        if (result.isPending()) return Continuation.resumeAt(result.resumeAtMillis, result.state);
+
+        // Update status and queue the webhook in one transaction, as ProcessPaymentJob does
+        String webhook = webhookData(merchantId, result.success ? "processed" : "failed", refundId);
         try (Connection conn = Database.connect()) {
-            String merchantId = null;
-            try (PreparedStatement stmt = conn.prepareStatement("SELECT merchant_id FROM refunds WHERE id = ?")) {
-                stmt.setString(1, refundId);
-                ResultSet rs = stmt.executeQuery();
-                if (rs.next()) merchantId = rs.getString("merchant_id");
-                else return;
+            conn.setAutoCommit(false);
+            boolean updated;
+            if (result.success) {
+                try (PreparedStatement stmt = conn.prepareStatement("UPDATE refunds SET status = 'processed', processed_at = CURRENT_TIMESTAMP WHERE id = ? AND status = 'pending'")) {
+                    stmt.setString(1, refundId);
+                    updated = stmt.executeUpdate() > 0;
+                }
+            } else {
+                updated = release(conn, refundId);
             }
+            if (!updated) return null;
+            Outbox.add(conn, "DELIVER_WEBHOOK", merchantId, webhook);
+            conn.commit();
+        }
+        Outbox.wake();
+        // A failed refund also hands its amount back to the payment
+        if (result.success) ReadCache.invalidate(ReadCache.refund(merchantId, refundId));
+        else ReadCache.invalidate(ReadCache.refund(merchantId, refundId), ReadCache.payment(merchantId, paymentId));
+        return null;
+    }
 
-            // Simulate Processing
-            Thread.sleep(3000 + (long)(Math.random() * 2000));
+    static String webhookData(String merchantId, String status, String refundId) {
+        return "{\"merchant_id\":\"" + merchantId + "\", \"event\":\"refund." + status + "\", \"data\": {\"refund_id\":\"" + refundId + "\"}}";
+    }
 
-            // Update Status
-            try (PreparedStatement stmt = conn.prepareStatement("UPDATE refunds SET status = 'processed', processed_at = CURRENT_TIMESTAMP WHERE id = ?")) {
-                stmt.setString(1, refundId);
+    /**
+     * Marks the refund failed and gives its amount back to the payment's refundable balance,
+     * within the caller's transaction. The status guard makes a redelivered job release only once.
+     */
+    private static boolean release(Connection conn, String refundId) throws Exception {
+        try (PreparedStatement fail = conn.prepareStatement(
+                "UPDATE refunds SET status = 'failed', processed_at = CURRENT_TIMESTAMP WHERE id = ? AND status = 'pending' RETURNING payment_id, amount")) {
+            fail.setString(1, refundId);
+            ResultSet rs = fail.executeQuery();
+            if (!rs.next()) return false;
+            try (PreparedStatement stmt = conn.prepareStatement("UPDATE payments SET refunded_amount = refunded_amount - ? WHERE id = ?")) {
+                stmt.setInt(1, rs.getInt("amount"));
+                stmt.setString(2, rs.getString("payment_id"));
                 stmt.executeUpdate();
             }
-
-            // Enqueue Webhook
-            String webhookData = "{\"merchant_id\":\"" + merchantId + "\", \"event\":\"refund.processed\", \"data\": {\"refund_id\":\"" + refundId + "\"}}";
-            JobService.enqueueJob("DELIVER_WEBHOOK", webhookData);
-        } catch (Exception e) { e.printStackTrace(); }
+            return true;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,161 @@
+package com.gateway.jobs;
+
+import com.gateway.services.TimeUuid;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces webhook events for merchants that opted in (merchants.webhook_batch_size > 1).
+ * Events are buffered per merchant until the batch is full or webhook_batch_window_ms has
+ * passed since its first event, then sent as one signed JSON array and logged as a single
+ * webhook_logs row with event "batch".
+ *
+ * A 2xx response may list the array indexes it did not accept as {"rejected":[...]}; those
+ * events, or every event when the whole batch fails, fall back to single delivery with their
+ * own log rows and retry schedule.
+ *
+ * Batches are closed on the timer thread and fallbacks run on webhook response threads, so
+ * everything here only hands work to {@link WebhookDispatcher}, which never blocks. If the
+ * merchant's webhook queue is full the events fail with {@link WebhookDispatcher.Saturated}
+ * and their jobs are retried later.
+ */
+public class WebhookBatcher {
+    static final String EVENT = "batch";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final ConcurrentHashMap<String, Batch> open = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "webhook-batcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final class Pending {
+        final String event;
+        final String payload;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        Pending(String event, String payload) { this.event = event; this.payload = payload; }
+    }
+
+    private static final class Batch {
+        final String merchantId;
+        final DeliverWebhookJob.MerchantConfig config;
+        final List<Pending> events = new ArrayList<>();
+        boolean closed;
+        Batch(String merchantId, DeliverWebhookJob.MerchantConfig config) { this.merchantId = merchantId; this.config = config; }
+    }
+
+    /** Adds an event to the merchant's open batch; the future completes once its outcome is logged. */
+    static CompletableFuture<Void> add(String merchantId, DeliverWebhookJob.MerchantConfig config, String event, String payloadJson) {
+        Pending pending = new Pending(event, payloadJson);
+        while (true) {
+            Batch batch = open.computeIfAbsent(merchantId, k -> {
+                Batch b = new Batch(merchantId, config);
+                timer.schedule(() -> close(b), Math.max(1, config.batchWindowMs), TimeUnit.MILLISECONDS);
+                return b;
+            });
+            boolean full;
+            synchronized (batch) {
+                if (batch.closed) continue; // lost the race with a flush, open a new batch
+                batch.events.add(pending);
+                full = batch.events.size() >= batch.config.batchSize;
+            }
+            if (full) close(batch);
+            return pending.done;
+        }
+    }
+
+    /** Sends every open batch now, e.g. on shutdown. */
+    public static void flush() {
+        for (Batch batch : open.values()) close(batch);
+    }
+
+    private static void close(Batch batch) {
+        synchronized (batch) {
+            if (batch.closed) return;
+            batch.closed = true;
+        }
+        open.remove(batch.merchantId, batch);
+        try {
+            send(batch);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fallback(batch, batch.events);
+        }
+    }
+
+    private static void send(Batch batch) {
+        String body = array(batch.events);
+        String signature = DeliverWebhookJob.calculateHMAC(body, batch.config.secret);
+        WebhookDispatcher.send(batch.merchantId, batch.config.url, body, signature).whenComplete((result, error) -> {
+            if (error != null) {
+                batch.events.forEach(p -> complete(p, error));
+                return;
+            }
+            if (!result.success()) {
+                fallback(batch, batch.events);
+                return;
+            }
+            Set<Integer> rejected = rejected(result.body, batch.events.size());
+            List<Pending> accepted = new ArrayList<>();
+            List<Pending> retry = new ArrayList<>();
+            for (int i = 0; i < batch.events.size(); i++) {
+                (rejected.contains(i) ? retry : accepted).add(batch.events.get(i));
+            }
+            if (!accepted.isEmpty()) {
+                WebhookLogWriter.append(new WebhookLogWriter.Entry(TimeUuid.random(), batch.merchantId, EVENT,
+                        array(accepted), "success", 1, null, result.statusCode, result.body))
+                    .whenComplete((ignored, logError) -> accepted.forEach(p -> complete(p, logError)));
+            }
+            fallback(batch, retry);
+        });
+    }
+
+    /** Delivers events one by one through the normal single-event path. */
+    private static void fallback(Batch batch, List<Pending> events) {
+        for (Pending p : events) {
+            try {
+                DeliverWebhookJob.deliver(TimeUuid.random(), 1, batch.merchantId, p.event, p.payload, batch.config)
+                    .whenComplete((ignored, error) -> complete(p, error));
+            } catch (Exception e) {
+                complete(p, e);
+            }
+        }
+    }
+
+    private static void complete(Pending p, Throwable error) {
+        if (error == null) p.done.complete(null);
+        else p.done.completeExceptionally(error);
+    }
+
+    private static Set<Integer> rejected(String responseBody, int size) {
+        Set<Integer> rejected = new HashSet<>();
+        try {
+            JsonNode node = mapper.readTree(responseBody).path("rejected");
+            for (JsonNode index : node) {
+                if (index.canConvertToInt() && index.asInt() >= 0 && index.asInt() < size) rejected.add(index.asInt());
+            }
+        } catch (Exception ignored) {
+            // Not JSON: treat a 2xx as accepting the whole batch
+        }
+        return rejected;
+    }
+
+    private static String array(List<Pending> events) {
+        StringBuilder sb = new StringBuilder("[");
+        for (Pending p : events) {
+            if (sb.length() > 1) sb.append(',');
+            sb.append(p.payload);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,231 @@
+package com.gateway.jobs;
+
+import com.gateway.services.Env;
+import com.gateway.services.Metrics;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+
+/**
+ * Non-blocking webhook sender. Requests go out with {@code sendAsync} on one shared
+ * HttpClient, so connections to each merchant host are kept alive and reused (HTTP/2
+ * over TLS, HTTP/1.1 keep-alive otherwise).
+ *
+ * {@link #send} never blocks, so it is safe from completion and timer threads. Every delivery
+ * is queued on its merchant's lane; a lane may have WEBHOOK_MAX_IN_FLIGHT_PER_MERCHANT requests
+ * running, and lanes take turns for the WEBHOOK_MAX_IN_FLIGHT global slots, which are only held
+ * while a request runs. A slow endpoint therefore only delays its own merchant. Once a lane has
+ * WEBHOOK_MAX_QUEUED_PER_MERCHANT deliveries waiting, further sends fail with {@link Saturated}
+ * and the caller retries later.
+ */
+public class WebhookDispatcher {
+    private static final int MAX_IN_FLIGHT = Env.getInt("WEBHOOK_MAX_IN_FLIGHT", 512);
+    private static final int MAX_PER_MERCHANT = Env.getInt("WEBHOOK_MAX_IN_FLIGHT_PER_MERCHANT", 16);
+    private static final int MAX_QUEUED_PER_MERCHANT = Env.getInt("WEBHOOK_MAX_QUEUED_PER_MERCHANT", 256);
+    private static final int MAX_RESPONSE_BYTES = Env.getInt("WEBHOOK_MAX_RESPONSE_BYTES", 4096);
+    private static final int HTTP_THREADS = Env.getInt("WEBHOOK_HTTP_THREADS", Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMillis(Env.getInt("WEBHOOK_TIMEOUT_MS", 10_000));
+
+    // Runs response handling and the completions chained on it (metrics, log writes, retries)
+    private static final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(Executors.newFixedThreadPool(HTTP_THREADS, r -> {
+                Thread t = new Thread(r, "webhook-http");
+                t.setDaemon(true);
+                return t;
+            }))
+            .build();
+
+    private static final ConcurrentHashMap<String, MerchantLane> merchants = new ConcurrentHashMap<>();
+    // Guards the counters and queues below and in every lane
+    private static final Object lock = new Object();
+    // Lanes with a waiting delivery and room under their own cap, in turn order
+    private static final ArrayDeque<MerchantLane> runnable = new ArrayDeque<>();
+    private static int inFlight;
+    private static int queued;
+
+    /** A merchant already has WEBHOOK_MAX_QUEUED_PER_MERCHANT deliveries waiting. */
+    public static final class Saturated extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        Saturated(String merchantId) { super("Webhook queue full for merchant " + merchantId); }
+    }
+
+    /** Outcome of one HTTP attempt. Network failures are reported as status 500. */
+    public static final class Result {
+        public final int statusCode;
+        public final String body;
+        Result(int statusCode, String body) { this.statusCode = statusCode; this.body = body; }
+        public boolean success() { return statusCode >= 200 && statusCode < 300; }
+    }
+
+    private static final String[] MERCHANT = {"merchant"};
+    private static final String[] MERCHANT_OUTCOME = {"merchant", "outcome"};
+
+    private static final class Delivery {
+        final MerchantLane lane;
+        final String merchantId;
+        final String url;
+        final String body;
+        final String signature;
+        final CompletableFuture<Result> result = new CompletableFuture<>();
+        Delivery(MerchantLane lane, String merchantId, String url, String body, String signature) {
+            this.lane = lane;
+            this.merchantId = merchantId;
+            this.url = url;
+            this.body = body;
+            this.signature = signature;
+        }
+    }
+
+    private static final class MerchantLane {
+        int inFlight;
+        boolean runnable;
+        final ArrayDeque<Delivery> waiting = new ArrayDeque<>();
+    }
+
+    /** Queues a signed POST without blocking; fails with {@link Saturated} if the merchant's queue is full. */
+    public static CompletableFuture<Result> send(String merchantId, String url, String body, String signature) {
+        MerchantLane lane = merchants.computeIfAbsent(merchantId, k -> new MerchantLane());
+        Delivery delivery = new Delivery(lane, merchantId, url, body, signature);
+        List<Delivery> ready;
+        synchronized (lock) {
+            if (lane.waiting.size() >= MAX_QUEUED_PER_MERCHANT) return CompletableFuture.failedFuture(new Saturated(merchantId));
+            lane.waiting.add(delivery);
+            queued++;
+            offer(lane);
+            ready = takeReady();
+        }
+        for (Delivery d : ready) start(d);
+        return delivery.result;
+    }
+
+    // Caller holds the lock
+    private static void offer(MerchantLane lane) {
+        if (!lane.runnable && !lane.waiting.isEmpty() && lane.inFlight < MAX_PER_MERCHANT) {
+            lane.runnable = true;
+            runnable.add(lane);
+        }
+    }
+
+    // Caller holds the lock. Hands out free global slots one delivery per lane per turn.
+    private static List<Delivery> takeReady() {
+        List<Delivery> ready = new ArrayList<>();
+        while (inFlight < MAX_IN_FLIGHT && !runnable.isEmpty()) {
+            MerchantLane lane = runnable.poll();
+            lane.runnable = false;
+            ready.add(lane.waiting.poll());
+            queued--;
+            lane.inFlight++;
+            inFlight++;
+            offer(lane);
+        }
+        return ready;
+    }
+
+    private static void start(Delivery delivery) {
+        long start = System.nanoTime();
+        CompletableFuture<Result> http;
+        try {
+            URI uri = URI.create(delivery.url);
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(uri)
+                    .version("https".equalsIgnoreCase(uri.getScheme()) ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                    .timeout(REQUEST_TIMEOUT)
+                    .header("Content-Type", "application/json")
+                    .header("X-Webhook-Signature", delivery.signature)
+                    .POST(HttpRequest.BodyPublishers.ofString(delivery.body))
+                    .build();
+            http = client.sendAsync(request, info -> HttpResponse.BodySubscribers.fromSubscriber(new TruncatingSubscriber(MAX_RESPONSE_BYTES), TruncatingSubscriber::text))
+                    .thenApply(response -> new Result(response.statusCode(), response.body()));
+        } catch (Exception e) {
+            http = CompletableFuture.failedFuture(e);
+        }
+        http.handle((result, error) -> {
+                Metrics.histogram("webhook_delivery_seconds", "Webhook HTTP round trip per merchant", MERCHANT, delivery.merchantId).observeSince(start);
+                String outcome = error != null ? "network_error" : result.success() ? "success" : "http_error";
+                Metrics.counter("webhook_deliveries_total", "Webhook delivery attempts per merchant and outcome", MERCHANT_OUTCOME, delivery.merchantId, outcome).inc();
+                return error == null ? result : new Result(500, "Network Error: " + rootMessage(error));
+            })
+            .thenAccept(result -> {
+                finished(delivery.lane);
+                delivery.result.complete(result);
+            });
+    }
+
+    private static void finished(MerchantLane lane) {
+        List<Delivery> ready;
+        synchronized (lock) {
+            lane.inFlight--;
+            inFlight--;
+            offer(lane);
+            ready = takeReady();
+            if (inFlight == 0 && queued == 0) lock.notifyAll();
+        }
+        for (Delivery d : ready) start(d);
+    }
+
+    /** Waits until every accepted delivery has completed. */
+    public static boolean drain(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (lock) {
+            while (inFlight > 0 || queued > 0) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) return false;
+                lock.wait(left);
+            }
+            return true;
+        }
+    }
+
+    public static int inFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    private static String rootMessage(Throwable error) {
+        while (error.getCause() != null) error = error.getCause();
+        return String.valueOf(error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName());
+    }
+
+    /** Keeps the first {@code limit} bytes of a response body and discards the rest as it streams in. */
+    private static final class TruncatingSubscriber implements Flow.Subscriber<List<ByteBuffer>> {
+        private final int limit;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        TruncatingSubscriber(int limit) { this.limit = limit; }
+
+        /** Called by the HttpClient once the body has completed. */
+        String text() { return new String(out.toByteArray(), StandardCharsets.UTF_8); }
+
+        @Override public void onSubscribe(Flow.Subscription subscription) { subscription.request(Long.MAX_VALUE); }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            for (ByteBuffer buffer : buffers) {
+                int room = limit - out.size();
+                if (room <= 0) return;
+                int n = Math.min(room, buffer.remaining());
+                byte[] chunk = new byte[n];
+                buffer.get(chunk);
+                out.write(chunk, 0, n);
+            }
+        }
+
+        @Override public void onError(Throwable throwable) { }
+
+        @Override public void onComplete() { }
+    }
+}
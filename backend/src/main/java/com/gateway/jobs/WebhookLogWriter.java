@@ -0,0 +1,159 @@
+package com.gateway.jobs;
+
+import com.gateway.services.Database;
+import com.gateway.services.Env;
+import com.gateway.services.TimeUuid;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind buffer for webhook_logs. Delivery outcomes are queued as they arrive and
+ * flushed as one JDBC batch per WEBHOOK_LOG_BATCH rows or WEBHOOK_LOG_FLUSH_MS, whichever
+ * comes first, so the DB connection is only held for the flush and never during HTTP.
+ *
+ * webhook_logs is partitioned by created_at, which for time-ordered ids is taken from the id,
+ * so a retry addresses the same (id, created_at) as its first attempt. Rows written before
+ * ids were time-ordered are updated by id alone.
+ */
+public class WebhookLogWriter {
+    private static final int BATCH = Env.getInt("WEBHOOK_LOG_BATCH", 200);
+    private static final long FLUSH_MS = Env.getInt("WEBHOOK_LOG_FLUSH_MS", 100);
+    private static final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private static Thread flusher;
+
+    static final class Entry {
+        final String id;
+        final String merchantId;
+        final String event;
+        final String payload;
+        final String status;
+        final int attempts;
+        final Timestamp nextRetryAt;
+        final int responseCode;
+        final String responseBody;
+        final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        Entry(String id, String merchantId, String event, String payload, String status, int attempts,
+              Timestamp nextRetryAt, int responseCode, String responseBody) {
+            this.id = id;
+            this.merchantId = merchantId;
+            this.event = event;
+            this.payload = payload;
+            this.status = status;
+            this.attempts = attempts;
+            this.nextRetryAt = nextRetryAt;
+            this.responseCode = responseCode;
+            this.responseBody = responseBody;
+        }
+    }
+
+    /**
+     * Claims delivery attempt {@code attempt} of an existing log row by moving its attempt count
+     * forward from {@code attempt - 1}. Returns false when another copy of the job already made
+     * this attempt (a retry that was both scheduled and re-enqueued by the reconciler) or the
+     * row is no longer pending, so the caller must not send.
+     */
+    static boolean claim(String id, int attempt) throws Exception {
+        long createdAt = TimeUuid.millis(id);
+        String sql = "UPDATE webhook_logs SET attempts = ? WHERE id = ?::uuid AND attempts = ? AND status = 'pending'"
+                + (createdAt >= 0 ? " AND created_at = to_timestamp(?::bigint / 1000.0)::timestamp" : "");
+        try (Connection conn = Database.connect(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, attempt);
+            stmt.setString(2, id);
+            stmt.setInt(3, attempt - 1);
+            if (createdAt >= 0) stmt.setLong(4, createdAt);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    /** Queues a log row; the future completes once it is committed. */
+    static synchronized CompletableFuture<Void> append(Entry entry) {
+        if (flusher == null) {
+            flusher = new Thread(WebhookLogWriter::run, "webhook-log-writer");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+        queue.add(entry);
+        return entry.written;
+    }
+
+    private static void run() {
+        List<Entry> batch = new ArrayList<>(BATCH);
+        while (true) {
+            try {
+                Entry first = queue.take();
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_MS);
+                while (batch.size() < BATCH) {
+                    Entry next = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private static void flush(List<Entry> batch) {
+        // Retries carry the id of the row written by the first attempt and update it in place
+        String upsert = "INSERT INTO webhook_logs (id, merchant_id, event, payload, status, attempts, last_attempt_at, next_retry_at, response_code, response_body, created_at) " +
+                "VALUES (?::uuid, ?::uuid, ?, ?::jsonb, ?, ?, CURRENT_TIMESTAMP, ?, ?, ?, to_timestamp(?::bigint / 1000.0)::timestamp) " +
+                "ON CONFLICT (id, created_at) DO UPDATE SET status = EXCLUDED.status, attempts = EXCLUDED.attempts, last_attempt_at = EXCLUDED.last_attempt_at, " +
+                "next_retry_at = EXCLUDED.next_retry_at, response_code = EXCLUDED.response_code, response_body = EXCLUDED.response_body";
+        String update = "UPDATE webhook_logs SET status = ?, attempts = ?, last_attempt_at = CURRENT_TIMESTAMP, next_retry_at = ?, response_code = ?, response_body = ? " +
+                "WHERE id = ?::uuid";
+        try (Connection conn = Database.connect();
+             PreparedStatement insertStmt = conn.prepareStatement(upsert);
+             PreparedStatement updateStmt = conn.prepareStatement(update)) {
+            conn.setAutoCommit(false);
+            boolean inserts = false;
+            boolean updates = false;
+            for (Entry e : batch) {
+                long createdAt = TimeUuid.millis(e.id);
+                if (createdAt < 0) {
+                    // Legacy random id: the row already exists, find it through every partition
+                    updateStmt.setString(1, e.status);
+                    updateStmt.setInt(2, e.attempts);
+                    updateStmt.setTimestamp(3, e.nextRetryAt);
+                    updateStmt.setInt(4, e.responseCode);
+                    updateStmt.setString(5, e.responseBody);
+                    updateStmt.setString(6, e.id);
+                    updateStmt.addBatch();
+                    updates = true;
+                    continue;
+                }
+                insertStmt.setString(1, e.id);
+                insertStmt.setString(2, e.merchantId);
+                insertStmt.setString(3, e.event);
+                insertStmt.setString(4, e.payload);
+                insertStmt.setString(5, e.status);
+                insertStmt.setInt(6, e.attempts);
+                insertStmt.setTimestamp(7, e.nextRetryAt);
+                insertStmt.setInt(8, e.responseCode);
+                insertStmt.setString(9, e.responseBody);
+                // Converted by the database in its own time zone, like the CURRENT_TIMESTAMP defaults partitions are cut by
+                insertStmt.setLong(10, createdAt);
+                insertStmt.addBatch();
+                inserts = true;
+            }
+            if (inserts) insertStmt.executeBatch();
+            if (updates) updateStmt.executeBatch();
+            conn.commit();
+            for (Entry e : batch) e.written.complete(null);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            // Jobs fail and get retried by the queue rather than losing the outcome silently
+            for (Entry e : batch) e.written.completeExceptionally(ex);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.gateway.jobs;
+
+import com.gateway.services.Env;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Backoff schedule for failed webhook deliveries: 1m, 5m, 30m, 2h after attempts 1-4,
+ * or 5s, 10s, 15s, 20s when WEBHOOK_RETRY_INTERVALS_TEST=true. WEBHOOK_RETRY_INTERVALS
+ * (comma-separated seconds) overrides both. A delivery is marked failed once every
+ * interval has been used.
+ */
+public class WebhookRetryPolicy {
+    private static final long[] PRODUCTION = {60, 300, 1800, 7200};
+    private static final long[] TEST = {5, 10, 15, 20};
+    private static volatile long[] intervals;
+    private static final double JITTER = Env.getInt("WEBHOOK_RETRY_JITTER_PERCENT", 10) / 100.0;
+
+    /** Loads the schedule; the worker calls this at startup so a bad WEBHOOK_RETRY_INTERVALS stops it there. */
+    public static void init() {
+        System.out.println("Webhook retries: after " + Arrays.toString(intervals()) + " seconds");
+    }
+
+    public static int maxAttempts() {
+        return intervals().length + 1;
+    }
+
+    /** Delay before the attempt that follows failed attempt {@code attempt} (1-based), with +/- jitter. */
+    public static long delayMs(int attempt) {
+        long[] schedule = intervals();
+        long base = schedule[Math.min(attempt, schedule.length) - 1] * 1000;
+        double factor = 1 + (JITTER > 0 ? ThreadLocalRandom.current().nextDouble(-JITTER, JITTER) : 0);
+        return Math.max(0, Math.round(base * factor));
+    }
+
+    // Parsed on first use rather than in a static initializer, so a bad value is a plain IllegalArgumentException
+    private static long[] intervals() {
+        long[] loaded = intervals;
+        if (loaded == null) intervals = loaded = load();
+        return loaded;
+    }
+
+    private static long[] load() {
+        String custom = System.getenv("WEBHOOK_RETRY_INTERVALS");
+        if (custom != null && !custom.isBlank()) {
+            String[] parts = custom.split(",");
+            long[] intervals = new long[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                try {
+                    intervals[i] = Long.parseLong(parts[i].trim());
+                } catch (NumberFormatException e) {
+                    intervals[i] = -1;
+                }
+                if (intervals[i] <= 0) throw new IllegalArgumentException("Invalid WEBHOOK_RETRY_INTERVALS: " + custom);
+            }
+            return intervals;
+        }
+        return Env.getBool("WEBHOOK_RETRY_INTERVALS_TEST", false) ? TEST : PRODUCTION;
+    }
+}
@@ -0,0 +1,84 @@
+package com.gateway.services;
+
+/**
+ * The card network / UPI processor the worker sends payments and refunds to.
+ *
+ * Calls never block on the acquirer's response time. The first call for a payment
+ * ({@code state} null) submits it and usually returns {@link Result#pending} with the time to
+ * check back and an opaque state; the job is then parked and the same method is called again
+ * with that state once it is due, until a final result comes back.
+ *
+ * The implementation is chosen with ACQUIRER_CLASS (a class with a public no-arg
+ * constructor); by default the {@link SimulatedAcquirer} is used.
+ */
+public interface Acquirer {
+    Result authorize(String paymentId, String method, int amount, String state);
+
+    Result refund(String refundId, int amount, String state);
+
+    final class Result {
+        private static final Result OK = new Result(true, null, null, 0, null);
+
+        public final boolean success;
+        public final String errorCode;
+        public final String errorDescription;
+        public final long resumeAtMillis;
+        public final String state;
+
+        private Result(boolean success, String errorCode, String errorDescription, long resumeAtMillis, String state) {
+            this.success = success;
+            this.errorCode = errorCode;
+            this.errorDescription = errorDescription;
+            this.resumeAtMillis = resumeAtMillis;
+            this.state = state;
+        }
+
+        public static Result ok() {
+            return OK;
+        }
+
+        public static Result declined(String errorCode, String errorDescription) {
+            return new Result(false, errorCode, errorDescription, 0, null);
+        }
+
+        /** No outcome yet: call again with {@code state} at {@code resumeAtMillis} (epoch ms). */
+        public static Result pending(long resumeAtMillis, String state) {
+            return new Result(false, null, null, resumeAtMillis, state);
+        }
+
+        public boolean isPending() {
+            return state != null;
+        }
+    }
+
+    /** The configured acquirer; the worker calls this at startup so bad settings stop it there. */
+    static Acquirer get() {
+        return Holder.get();
+    }
+
+    final class Holder {
+        private static volatile Acquirer instance;
+
+        // Loaded on first use rather than in a static initializer, so bad settings fail with their own message
+        static Acquirer get() {
+            Acquirer loaded = instance;
+            if (loaded != null) return loaded;
+            synchronized (Holder.class) {
+                if (instance == null) instance = load();
+                return instance;
+            }
+        }
+
+        private static Acquirer load() {
+            String className = Env.get("ACQUIRER_CLASS", null);
+            if (className == null) return new SimulatedAcquirer();
+            try {
+                Acquirer acquirer = (Acquirer) Class.forName(className).getDeclaredConstructor().newInstance();
+                System.out.println("Acquirer: using " + className);
+                return acquirer;
+            } catch (Exception e) {
+                throw new IllegalStateException("Cannot load ACQUIRER_CLASS " + className, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.gateway.services;
+
+import redis.clients.jedis.Jedis;
+import spark.Request;
+import spark.Response;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static spark.Spark.halt;
+
+/**
+ * Admission control for API requests. Before the API key is looked up ({@link #admitClient}):
+ *
+ * 1. Load shedding, answered with 503: writes are shed once the job backlog approaches
+ *    SHED_QUEUE_DEPTH, and every request once DB pool waiters approach SHED_DB_WAITERS.
+ *    Shedding starts at 80% of a threshold and rises linearly to all requests at 100%, so
+ *    overload turns into a growing share of fast rejections instead of timeouts for everyone.
+ * 2. Rate limit per client IP: CLIENT_RATE_LIMIT_PER_SECOND up to CLIENT_RATE_LIMIT_BURST,
+ *    answered with 429, so a flood of invalid keys cannot reach the key lookup.
+ *
+ * After the key resolved to a merchant ({@link #admit}):
+ *
+ * 3. Rate limit per API key: RATE_LIMIT_PER_SECOND up to RATE_LIMIT_BURST, answered with 429.
+ * 4. Concurrency per route: at most ROUTE_MAX_CONCURRENCY requests of one route run at once
+ *    (ROUTE_MAX_CONCURRENCY_<METHOD>_<PATH> overrides one route, e.g.
+ *    ROUTE_MAX_CONCURRENCY_POST_API_V1_PAYMENTS), answered with 503.
+ *
+ * Rate limits are token buckets, lock-free (one CAS on the time the bucket is next full, GCRA
+ * style); with RATE_LIMIT_SHARED they live in Redis so limits hold across API instances,
+ * falling back to the local bucket if Redis fails.
+ *
+ * Every rejection carries Retry-After. Status streams are exempt from the route limit; they
+ * are capped by PAYMENT_EVENTS_MAX_WAITERS.
+ */
+public class Admission {
+    private static final Limit KEY_LIMIT = new Limit(Env.getInt("RATE_LIMIT_PER_SECOND", 200), Env.getInt("RATE_LIMIT_BURST", 400));
+    private static final Limit CLIENT_LIMIT = new Limit(Env.getInt("CLIENT_RATE_LIMIT_PER_SECOND", 1000), Env.getInt("CLIENT_RATE_LIMIT_BURST", 2000));
+    private static final boolean SHARED = Env.getBool("RATE_LIMIT_SHARED", false);
+    private static final int ROUTE_LIMIT = Env.getInt("ROUTE_MAX_CONCURRENCY", 64);
+    private static final long SHED_QUEUE_DEPTH = Env.getInt("SHED_QUEUE_DEPTH", 100_000);
+    private static final long SHED_DB_WAITERS = Env.getInt("SHED_DB_WAITERS", 50);
+    private static final long SAMPLE_MS = Env.getInt("ADMISSION_SAMPLE_MS", 250);
+    private static final String PERMIT = "admission.permit";
+    private static final String[] REASON = {"reason"};
+
+    // KEYS: bucket; ARGV: interval us, tolerance us. Returns 0 if admitted, else us until it would be
+    private static final String RATE_SCRIPT =
+            "local t = redis.call('TIME') local now = tonumber(t[1]) * 1000000 + tonumber(t[2]) " +
+            "local tat = math.max(tonumber(redis.call('GET', KEYS[1]) or now), now) " +
+            "local next = tat + tonumber(ARGV[1]) " +
+            "if next - now > tonumber(ARGV[2]) then return next - now - tonumber(ARGV[2]) end " +
+            "redis.call('SET', KEYS[1], next, 'PX', math.ceil((next - now) / 1000) + 1) return 0";
+
+    private static final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Semaphore> routes = new ConcurrentHashMap<>();
+    private static volatile long queueDepth;
+    private static volatile long dbWaiters;
+
+    /** Starts sampling the job backlog and DB pool; call once at startup. */
+    public static void start() {
+        Thread sampler = new Thread(() -> {
+            long lastSweep = System.currentTimeMillis();
+            while (true) {
+                try {
+                    Thread.sleep(SAMPLE_MS);
+                    Map<String, Long> pool = Database.poolStats();
+                    dbWaiters = pool.get("waiters");
+                    if (SHED_QUEUE_DEPTH > 0) queueDepth = JobService.queueDepth();
+                    // A bucket that has refilled is the same as no bucket
+                    if (System.currentTimeMillis() - lastSweep > 60_000) {
+                        long now = System.nanoTime();
+                        buckets.values().removeIf(b -> b.get() - now < 0);
+                        lastSweep = System.currentTimeMillis();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) { e.printStackTrace(); }
+            }
+        }, "admission-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+        Metrics.gauge("admission_job_queue_depth", "Job backlog as last sampled for load shedding", () -> queueDepth);
+    }
+
+    /** Before-filter, before the API key is looked up: halts with 429 or 503 if the client is not admitted. */
+    public static void admitClient(Request req, Response res) {
+        // 1. Shed load while the backlog or the DB pool is saturated
+        boolean write = !req.requestMethod().equals("GET");
+        if (write && shed(queueDepth, SHED_QUEUE_DEPTH)) {
+            reject(res, 503, "queue_backlog", "SERVER_BUSY", "Payment processing is backlogged, retry later", TimeUnit.SECONDS.toNanos(5));
+        }
+        if (shed(dbWaiters, SHED_DB_WAITERS)) {
+            reject(res, 503, "db_pressure", "SERVER_BUSY", "Server is overloaded, retry later", TimeUnit.SECONDS.toNanos(1));
+        }
+
+        // 2. Per-client rate limit, counting requests with invalid keys too
+        if (CLIENT_LIMIT.enabled()) {
+            long waitNanos = take("ip:" + req.ip(), CLIENT_LIMIT);
+            if (waitNanos > 0) reject(res, 429, "client_rate_limited", "RATE_LIMITED", "Too many requests from this client", waitNanos);
+        }
+    }
+
+    /**
+     * Before-filter, after authentication: halts with 429 or 503 if the request is not admitted.
+     * The key's bucket is keyed by the hash authentication stored in the apiKeyHash attribute.
+     */
+    public static void admit(Request req, Response res) {
+        // 3. Per-key rate limit
+        if (KEY_LIMIT.enabled()) {
+            long waitNanos = take(req.attribute("apiKeyHash"), KEY_LIMIT);
+            if (waitNanos > 0) reject(res, 429, "rate_limited", "RATE_LIMITED", "Too many requests for this API key", waitNanos);
+        }
+
+        // 4. Per-route concurrency
+        if (ROUTE_LIMIT <= 0 || req.pathInfo().endsWith("/events")) return;
+        String route = RouteMetrics.route(req.requestMethod(), req.pathInfo());
+        if (route.equals("unmatched")) return;
+        Semaphore permits = routes.computeIfAbsent(req.requestMethod() + " " + route, Admission::permits);
+        if (!permits.tryAcquire()) {
+            reject(res, 503, "concurrency", "SERVER_BUSY", "Too many concurrent requests for this endpoint", TimeUnit.SECONDS.toNanos(1));
+        }
+        req.attribute(PERMIT, permits);
+    }
+
+    /** After-after filter: returns the route permit taken by {@link #admit}. */
+    public static void release(Request req) {
+        Semaphore permits = req.attribute(PERMIT);
+        if (permits != null) permits.release();
+    }
+
+    private static long take(String bucketKey, Limit limit) {
+        if (SHARED) {
+            try (Jedis jedis = Redis.get()) {
+                Object wait = jedis.eval(RATE_SCRIPT, List.of("ratelimit:" + bucketKey),
+                        List.of(String.valueOf(limit.intervalNanos / 1000), String.valueOf(limit.toleranceNanos / 1000)));
+                return TimeUnit.MICROSECONDS.toNanos((Long) wait);
+            } catch (Exception e) {
+                // Fall through to this instance's own bucket
+                e.printStackTrace();
+            }
+        }
+        AtomicLong bucket = buckets.computeIfAbsent(bucketKey, k -> new AtomicLong(System.nanoTime()));
+        while (true) {
+            long now = System.nanoTime();
+            long current = bucket.get();
+            long next = Math.max(current - now, 0) + now + limit.intervalNanos;
+            if (next - now > limit.toleranceNanos) return next - now - limit.toleranceNanos;
+            if (bucket.compareAndSet(current, next)) return 0;
+        }
+    }
+
+    // Sheds nothing below 80% of the threshold, then a linearly growing share up to all of it
+    private static boolean shed(long value, long threshold) {
+        if (threshold <= 0) return false;
+        double excess = (value - 0.8 * threshold) / (0.2 * threshold);
+        return excess > 0 && (excess >= 1 || ThreadLocalRandom.current().nextDouble() < excess);
+    }
+
+    private static Semaphore permits(String route) {
+        String name = "ROUTE_MAX_CONCURRENCY_" + route.replaceAll("[^A-Za-z0-9]+", "_").replaceAll("_+$", "").toUpperCase(Locale.ROOT);
+        return new Semaphore(Env.getInt(name, ROUTE_LIMIT));
+    }
+
+    private static void reject(Response res, int status, String reason, String code, String description, long retryAfterNanos) {
+        Metrics.counter("admission_rejections_total", "Requests turned away by admission control", REASON, reason).inc();
+        res.type("application/json");
+        res.header("Retry-After", String.valueOf(Math.max(1, (retryAfterNanos + 999_999_999) / 1_000_000_000)));
+        halt(status, "{\"error\": {\"code\":\"" + code + "\", \"description\":\"" + description + "\"}}");
+    }
+
+    private static final class Limit {
+        final long intervalNanos;
+        final long toleranceNanos;
+
+        Limit(int perSecond, int burst) {
+            this.intervalNanos = perSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / perSecond : 0;
+            this.toleranceNanos = intervalNanos * Math.max(1, burst);
+        }
+
+        boolean enabled() { return intervalNanos > 0; }
+    }
+}
@@ -0,0 +1,166 @@
+package com.gateway.services;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves API keys to merchant ids. Keys are stored as SHA-256 hashes in api_keys;
+ * lookups are served from a bounded in-process cache. Misses are remembered in a separate,
+ * smaller map that drops its oldest entries when full, so key-guessing can't hammer Postgres
+ * and a flood of bad keys never pushes valid ones out. Rotations publish the revoked hash on api_key_invalidations
+ * so every API instance drops it immediately instead of waiting for the TTL.
+ */
+public class ApiKeys {
+    private static final String CHANNEL = "api_key_invalidations";
+    private static final String ALL = "*";
+    private static final int MAX_ENTRIES = Env.getInt("API_KEY_CACHE_SIZE", 10_000);
+    private static final long TTL_MS = Env.getInt("API_KEY_CACHE_TTL_MS", 300_000);
+    private static final long NEGATIVE_TTL_MS = Env.getInt("API_KEY_CACHE_NEGATIVE_TTL_MS", 30_000);
+    private static final int NEGATIVE_MAX_ENTRIES = Env.getInt("API_KEY_CACHE_NEGATIVE_SIZE", 1_000);
+    private static final SecureRandom random = new SecureRandom();
+    private static final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> {
+        try { return MessageDigest.getInstance("SHA-256"); } catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+    });
+
+    private static final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+    // Unknown key hash -> expiry, in insertion order, which is also expiry order
+    private static final Map<String, Long> misses = Collections.synchronizedMap(new LinkedHashMap<String, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > NEGATIVE_MAX_ENTRIES;
+        }
+    });
+
+    private static final class Entry {
+        final String merchantId;
+        final long expiresAt;
+        Entry(String merchantId, long expiresAt) { this.merchantId = merchantId; this.expiresAt = expiresAt; }
+    }
+
+    /** Subscribes to invalidation broadcasts; call once at startup. */
+    public static void startInvalidationListener() {
+        Redis.subscribe("api-key-invalidations", ApiKeys::clear, new JedisPubSub() {
+            @Override
+            public void onMessage(String channel, String message) {
+                if (ALL.equals(message)) clear();
+                else cache.remove(message);
+            }
+        }, CHANNEL);
+    }
+
+    /** Returns the merchant owning this key, or null if the key is unknown or revoked. */
+    public static String resolve(String apiKey) throws Exception {
+        return resolveHash(hashKey(apiKey));
+    }
+
+    /** The hash a key is stored and cached under, or null if it is not a well-formed key. */
+    public static String hashKey(String apiKey) {
+        if (apiKey == null || !apiKey.startsWith("key_")) return null;
+        return hash(apiKey);
+    }
+
+    /** Like {@link #resolve} for a key already hashed with {@link #hashKey}, so callers hash it only once. */
+    public static String resolveHash(String hash) throws Exception {
+        if (hash == null) return null;
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(hash);
+        if (entry != null && entry.expiresAt > now) return entry.merchantId;
+        Long missExpiresAt = misses.get(hash);
+        if (missExpiresAt != null && missExpiresAt > now) return null;
+
+        String merchantId = null;
+        try (Connection conn = Database.connect();
+             PreparedStatement stmt = conn.prepareStatement("SELECT merchant_id FROM api_keys WHERE key_hash = ? AND revoked_at IS NULL")) {
+            stmt.setString(1, hash);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) merchantId = rs.getString("merchant_id");
+        }
+        if (merchantId == null) {
+            // Re-insert so a renewed miss moves to the young end
+            misses.remove(hash);
+            misses.put(hash, now + NEGATIVE_TTL_MS);
+            return null;
+        }
+        if (cache.size() >= MAX_ENTRIES) evict(now);
+        cache.put(hash, new Entry(merchantId, now + TTL_MS));
+        return merchantId;
+    }
+
+    /** Issues a new key for the merchant and revokes the one presented. Returns the new plaintext key. */
+    public static String rotate(String merchantId, String currentKey) throws Exception {
+        byte[] secret = new byte[24];
+        random.nextBytes(secret);
+        String newKey = "key_live_" + hex(secret);
+        String oldHash = hash(currentKey);
+        try (Connection conn = Database.connect()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO api_keys (key_hash, merchant_id, key_prefix) VALUES (?, ?::uuid, ?)")) {
+                stmt.setString(1, hash(newKey));
+                stmt.setString(2, merchantId);
+                stmt.setString(3, newKey.substring(0, 13));
+                stmt.executeUpdate();
+            }
+            try (PreparedStatement stmt = conn.prepareStatement("UPDATE api_keys SET revoked_at = CURRENT_TIMESTAMP WHERE key_hash = ? AND merchant_id = ?::uuid")) {
+                stmt.setString(1, oldHash);
+                stmt.setString(2, merchantId);
+                stmt.executeUpdate();
+            }
+            conn.commit();
+        }
+        invalidate(oldHash);
+        return newKey;
+    }
+
+    /** Drops a key hash from every API instance's cache. */
+    public static void invalidate(String keyHash) {
+        cache.remove(keyHash);
+        try (Jedis jedis = Redis.get()) {
+            jedis.publish(CHANNEL, keyHash);
+        } catch (Exception e) {
+            // Other instances fall back to the TTL
+            e.printStackTrace();
+        }
+    }
+
+    private static void clear() {
+        cache.clear();
+        misses.clear();
+    }
+
+    private static void evict(long now) {
+        cache.values().removeIf(e -> e.expiresAt <= now);
+        // Still full of live entries: drop an arbitrary slice rather than tracking recency on the hot path
+        Iterator<String> it = cache.keySet().iterator();
+        for (int i = 0; i < MAX_ENTRIES / 10 && cache.size() >= MAX_ENTRIES && it.hasNext(); i++) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    static String hash(String apiKey) {
+        MessageDigest md = sha256.get();
+        md.reset();
+        return hex(md.digest(apiKey.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            out[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(out);
+    }
+}
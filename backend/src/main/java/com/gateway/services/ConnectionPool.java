@@ -0,0 +1,318 @@
+package com.gateway.services;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded JDBC connection pool. Idle connections are kept LIFO so the hottest
+ * (already prepared) connection is reused first; {@code close()} on a borrowed
+ * connection hands it back instead of closing the socket.
+ *
+ * A connection that raised a connection-class error (SQLState 08xxx) is closed on return
+ * instead of pooled, and after such an error every connection idle since before it is
+ * validated on borrow, since a server restart or failover drops them all at once. Any other
+ * error marks just that connection for validation. Connections held past the leak threshold
+ * are logged with the borrowing thread, and past the reclaim threshold (off unless set) they
+ * are aborted, even mid-query, and their slot handed back. The borrower's stack is captured
+ * only with leakTrace, since walking it on every acquire is the most expensive step of a borrow.
+ */
+public class ConnectionPool {
+    private final String jdbcUrl;
+    private final Properties props;
+    private final int minIdle;
+    private final int maxSize;
+    private final long acquireTimeoutMs;
+    private final long idleTimeoutMs;
+    private final long leakThresholdMs;
+    private final long leakReclaimMs;
+    private final boolean leakTrace;
+
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<Idle> idle = new ConcurrentLinkedDeque<>();
+    private final Set<Lease> leased = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final AtomicLong reclaimed = new AtomicLong();
+    private final AtomicLong broken = new AtomicLong();
+    // When a borrowed connection last failed with a connection error; idle ones older than this are suspect
+    private volatile long lastBrokenAt;
+    private final ScheduledExecutorService housekeeper;
+
+    private static final Metrics.Histogram acquireTime = Metrics.histogram("db_pool_acquire_seconds", "Time spent waiting for a pooled connection", new String[0]);
+    private static final Metrics.Histogram holdTime = Metrics.histogram("db_connection_hold_seconds", "Time a connection was borrowed from the pool", new String[0]);
+    private static final Metrics.Histogram queryTime = Metrics.histogram("db_query_seconds", "Statement execution time", new String[0]);
+
+    public ConnectionPool(String jdbcUrl, Properties props, int minIdle, int maxSize,
+                          long acquireTimeoutMs, long idleTimeoutMs, long leakThresholdMs, long leakReclaimMs, boolean leakTrace) {
+        this.jdbcUrl = jdbcUrl;
+        this.props = props;
+        this.minIdle = Math.min(minIdle, maxSize);
+        this.maxSize = maxSize;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.leakThresholdMs = leakThresholdMs;
+        this.leakReclaimMs = leakReclaimMs;
+        this.leakTrace = leakTrace;
+        this.permits = new Semaphore(maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 0, 5, TimeUnit.SECONDS);
+    }
+
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLException("Connection pool exhausted: no connection available within " + acquireTimeoutMs + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection");
+        }
+        try {
+            Connection raw = takeIdle();
+            if (raw == null) raw = open();
+            acquired.incrementAndGet();
+            acquireTime.observeSince(start);
+            Lease lease = new Lease(raw, leakTrace ? new Throwable("Connection acquired here") : null);
+            leased.add(lease);
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, lease);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Connection takeIdle() {
+        Idle entry;
+        while ((entry = idle.pollFirst()) != null) {
+            // Only validate connections that sat long enough for the server or a proxy to have dropped them,
+            // that saw an error, or that were idle when another connection lost the server
+            boolean suspect = entry.failed || entry.since <= lastBrokenAt || System.currentTimeMillis() - entry.since >= 30_000;
+            if (!suspect || isValid(entry.conn)) return entry.conn;
+            discard(entry.conn);
+        }
+        return null;
+    }
+
+    private Connection open() throws SQLException {
+        Connection conn = DriverManager.getConnection(jdbcUrl, props);
+        total.incrementAndGet();
+        created.incrementAndGet();
+        return conn;
+    }
+
+    private void release(Lease lease) {
+        leased.remove(lease);
+        holdTime.observeSince(lease.acquiredNanos);
+        Connection conn = lease.raw;
+        try {
+            if (lease.broken) {
+                discard(conn);
+                return;
+            }
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+            idle.offerFirst(new Idle(conn, System.currentTimeMillis(), lease.failed));
+        } catch (SQLException e) {
+            discard(conn);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(Connection conn) {
+        total.decrementAndGet();
+        try { conn.close(); } catch (SQLException ignored) {}
+    }
+
+    // Records an error raised through a lease; SQLState class 08 means the connection itself is gone
+    private void failed(Lease lease, Throwable error) {
+        if (!(error instanceof SQLException)) return;
+        lease.failed = true;
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            String state = t instanceof SQLException ? ((SQLException) t).getSQLState() : null;
+            if (state != null && state.startsWith("08")) {
+                if (!lease.broken) broken.incrementAndGet();
+                lease.broken = true;
+                lastBrokenAt = System.currentTimeMillis();
+                return;
+            }
+        }
+    }
+
+    // Takes a leaked connection back: the holder's next call fails and the slot is free again
+    private void reclaim(Lease lease) {
+        if (!lease.markClosed()) return;
+        leased.remove(lease);
+        reclaimed.incrementAndGet();
+        total.decrementAndGet();
+        try {
+            lease.raw.abort(Runnable::run);
+        } catch (SQLException e) {
+            try { lease.raw.close(); } catch (SQLException ignored) {}
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static boolean isValid(Connection conn) {
+        try { return conn.isValid(2); } catch (SQLException e) { return false; }
+    }
+
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+            // Retire the coldest idle connections above the floor
+            Idle tail;
+            while (idle.size() > minIdle && (tail = idle.peekLast()) != null && now - tail.since > idleTimeoutMs) {
+                if (idle.removeLastOccurrence(tail)) discard(tail.conn);
+            }
+            while (total.get() < minIdle && idle.size() < minIdle) {
+                idle.offerLast(new Idle(open(), now));
+            }
+            for (Lease lease : leased) {
+                long held = now - lease.acquiredAt;
+                if (leakReclaimMs > 0 && held > leakReclaimMs) {
+                    System.out.println("DB Pool: reclaiming connection held by " + lease.thread + " for more than " + leakReclaimMs + "ms");
+                    if (lease.origin != null) lease.origin.printStackTrace();
+                    reclaim(lease);
+                } else if (leakThresholdMs > 0 && !lease.reported && held > leakThresholdMs) {
+                    lease.reported = true;
+                    leaks.incrementAndGet();
+                    System.out.println("DB Pool: connection held by " + lease.thread + " for more than " + leakThresholdMs + "ms, possible leak");
+                    if (lease.origin != null) lease.origin.printStackTrace();
+                }
+            }
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("active", (long) leased.size());
+        stats.put("idle", (long) idle.size());
+        stats.put("total", (long) total.get());
+        stats.put("max", (long) maxSize);
+        stats.put("waiters", (long) permits.getQueueLength());
+        stats.put("created_total", created.get());
+        stats.put("acquired_total", acquired.get());
+        stats.put("acquire_timeouts_total", timeouts.get());
+        stats.put("leaks_total", leaks.get());
+        stats.put("leaks_reclaimed_total", reclaimed.get());
+        stats.put("broken_total", broken.get());
+        return stats;
+    }
+
+    private static final class Idle {
+        final Connection conn;
+        final long since;
+        final boolean failed;
+        Idle(Connection conn, long since) { this(conn, since, false); }
+        Idle(Connection conn, long since, boolean failed) { this.conn = conn; this.since = since; this.failed = failed; }
+    }
+
+    private final class Lease implements InvocationHandler {
+        final Connection raw;
+        final Throwable origin;
+        final String thread = Thread.currentThread().getName();
+        final long acquiredAt = System.currentTimeMillis();
+        final long acquiredNanos = System.nanoTime();
+        volatile boolean reported;
+        volatile boolean failed;
+        volatile boolean broken;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Lease(Connection raw, Throwable origin) {
+            this.raw = raw;
+            this.origin = origin;
+        }
+
+        boolean markClosed() { return closed.compareAndSet(false, true); }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (markClosed()) release(this);
+                    return null;
+                case "isClosed":
+                    return closed.get() || raw.isClosed();
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) return proxy;
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + raw + "]";
+                default:
+            }
+            if (closed.get()) throw new SQLException("Connection has already been returned to the pool");
+            Object result;
+            try {
+                result = method.invoke(raw, args);
+            } catch (InvocationTargetException e) {
+                failed(this, e.getCause());
+                throw e.getCause();
+            }
+            if (result instanceof Statement) {
+                // Time execute* calls; the interface list keeps PreparedStatement/CallableStatement casts working
+                Class<?> type = result instanceof CallableStatement ? CallableStatement.class
+                        : result instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+                return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{type}, new Timed(this, (Statement) result));
+            }
+            return result;
+        }
+    }
+
+    private final class Timed implements InvocationHandler {
+        final Lease lease;
+        final Statement raw;
+        Timed(Lease lease, Statement raw) { this.lease = lease; this.raw = raw; }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            boolean execute = method.getName().startsWith("execute");
+            long start = execute ? System.nanoTime() : 0;
+            try {
+                return method.invoke(raw, args);
+            } catch (InvocationTargetException e) {
+                failed(lease, e.getCause());
+                throw e.getCause();
+            } finally {
+                if (execute) queryTime.observeSince(start);
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.gateway.services;
+
+/**
+ * Returned by a job that is waiting on something external instead of sleeping on a worker
+ * thread: the worker parks the job in the schedule and runs it again at {@code dueAtMillis}
+ * with {@code state}, which the job receives through {@link JobPayload#getState}.
+ */
+public final class Continuation {
+    public final long dueAtMillis;
+    public final String state;
+
+    private Continuation(long dueAtMillis, String state) {
+        this.dueAtMillis = dueAtMillis;
+        this.state = state;
+    }
+
+    public static Continuation resumeAt(long dueAtMillis, String state) {
+        if (state == null) throw new IllegalArgumentException("A continuation needs a state");
+        return new Continuation(dueAtMillis, state);
+    }
+}
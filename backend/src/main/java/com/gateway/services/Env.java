@@ -0,0 +1,20 @@
+package com.gateway.services;
+
+public class Env {
+    public static int getInt(String name, int fallback) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) return fallback;
+        try { return Integer.parseInt(value.trim()); } catch (NumberFormatException e) { return fallback; }
+    }
+
+    public static boolean getBool(String name, boolean fallback) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) return fallback;
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    public static String get(String name, String fallback) {
+        String value = System.getenv(name);
+        return (value == null || value.isEmpty()) ? fallback : value;
+    }
+}
@@ -0,0 +1,224 @@
+package com.gateway.services;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.params.SetParams;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Idempotency-Key handling for mutating routes.
+ *
+ * Protocol: {@link #begin} either returns the stored response of a finished request or
+ * reserves the key (SET NX "pending" in Redis). The caller then writes its rows together
+ * with {@link #record} in one transaction and calls {@link #complete} after commit, or
+ * {@link #abandon} on failure. Concurrent duplicates on the same instance wait on the first
+ * request's future; duplicates on other instances poll the Redis entry. In Postgres,
+ * {@link #record} takes a transaction-scoped advisory lock per key before checking for a live
+ * record, so even with Redis unavailable a key can only ever produce one committed payment.
+ * (idempotency_keys is partitioned by created_at, so no unique index can span the key's
+ * lifetime; expired rows go when their partition is dropped.)
+ */
+public class Idempotency {
+    private static final String PENDING = "pending";
+    private static final long TTL_SECONDS = Env.getInt("IDEMPOTENCY_TTL_SECONDS", 86400);
+    private static final long RESERVATION_MS = Env.getInt("IDEMPOTENCY_RESERVATION_MS", 30_000);
+    private static final long WAIT_MS = Env.getInt("IDEMPOTENCY_WAIT_MS", 10_000);
+
+    private static final ConcurrentHashMap<String, CompletableFuture<String>> inflight = new ConcurrentHashMap<>();
+
+    /** Thrown when another request with the same key is still running after {@code IDEMPOTENCY_WAIT_MS}. */
+    public static class InProgressException extends Exception {
+        private static final long serialVersionUID = 1L;
+        public InProgressException() { super("A request with this Idempotency-Key is still in progress"); }
+    }
+
+    /**
+     * Returns the stored response for this key, or null if the caller now owns the key
+     * and must finish with {@link #complete} or {@link #abandon}.
+     */
+    public static String begin(String merchantId, String key) throws Exception {
+        String id = id(merchantId, key);
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (true) {
+            CompletableFuture<String> mine = new CompletableFuture<>();
+            CompletableFuture<String> leader = inflight.putIfAbsent(id, mine);
+            if (leader != null) {
+                // Same key already running on this instance: share its result
+                String response = await(leader, deadline);
+                if (response != null) return response;
+                continue; // leader abandoned, compete again
+            }
+            try {
+                String response = reserveOrFetch(id, merchantId, key, deadline);
+                if (response != null) {
+                    inflight.remove(id, mine);
+                    mine.complete(response);
+                }
+                return response;
+            } catch (Exception e) {
+                inflight.remove(id, mine);
+                mine.complete(null);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Inserts the durable record inside the caller's transaction. Returns false if a live
+     * record already exists, in which case the caller must roll back and use {@link #stored}.
+     */
+    public static boolean record(Connection conn, String merchantId, String key, String response) throws Exception {
+        lock(conn, merchantId, List.of(key));
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO idempotency_keys (key, merchant_id, response, expires_at) SELECT ?, ?::uuid, ?::jsonb, ? " +
+                "WHERE NOT EXISTS (SELECT 1 FROM idempotency_keys WHERE key = ? AND merchant_id = ?::uuid AND expires_at > CURRENT_TIMESTAMP)")) {
+            stmt.setString(1, key);
+            stmt.setString(2, merchantId);
+            stmt.setString(3, response);
+            stmt.setTimestamp(4, Timestamp.from(Instant.now().plusSeconds(TTL_SECONDS)));
+            stmt.setString(5, key);
+            stmt.setString(6, merchantId);
+            return stmt.executeUpdate() == 1;
+        }
+    }
+
+    /**
+     * Batch form of {@link #record} for one merchant: inserts every key in a single statement
+     * and returns the keys that were recorded. Keys missing from the result already have a
+     * live record; read them with {@link #storedAll}.
+     */
+    public static Set<String> recordAll(Connection conn, String merchantId, Map<String, String> responses) throws Exception {
+        Set<String> recorded = new HashSet<>();
+        if (responses.isEmpty()) return recorded;
+        lock(conn, merchantId, responses.keySet());
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO idempotency_keys (key, merchant_id, response, expires_at) " +
+                "SELECT k, ?::uuid, r::jsonb, ? FROM unnest(?::text[], ?::text[]) AS t(k, r) " +
+                "WHERE NOT EXISTS (SELECT 1 FROM idempotency_keys i WHERE i.key = t.k AND i.merchant_id = ?::uuid AND i.expires_at > CURRENT_TIMESTAMP) " +
+                "RETURNING key")) {
+            stmt.setString(1, merchantId);
+            stmt.setTimestamp(2, Timestamp.from(Instant.now().plusSeconds(TTL_SECONDS)));
+            stmt.setArray(3, conn.createArrayOf("text", responses.keySet().toArray()));
+            stmt.setArray(4, conn.createArrayOf("text", responses.values().toArray()));
+            stmt.setString(5, merchantId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) recorded.add(rs.getString("key"));
+        }
+        return recorded;
+    }
+
+    /**
+     * Serializes writers of the same keys until the caller's transaction ends. Runs as its own
+     * statement so the existence check that follows sees rows committed while it waited;
+     * locks are taken in hash order so overlapping batches cannot deadlock.
+     */
+    private static void lock(Connection conn, String merchantId, Collection<String> keys) throws Exception {
+        List<String> ids = new ArrayList<>(keys.size());
+        for (String key : keys) ids.add(id(merchantId, key));
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT pg_advisory_xact_lock(h) FROM (SELECT DISTINCT hashtextextended(k, 0) AS h FROM unnest(?::text[]) AS t(k) ORDER BY h) s")) {
+            stmt.setArray(1, conn.createArrayOf("text", ids.toArray()));
+            stmt.executeQuery();
+        }
+    }
+
+    /** Reads live stored responses for several keys in one query. */
+    public static Map<String, String> storedAll(Connection conn, String merchantId, Collection<String> keys) throws Exception {
+        Map<String, String> stored = new HashMap<>();
+        if (keys.isEmpty()) return stored;
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT key, response FROM idempotency_keys WHERE merchant_id = ?::uuid AND key = ANY(?) AND expires_at > CURRENT_TIMESTAMP")) {
+            stmt.setString(1, merchantId);
+            stmt.setArray(2, conn.createArrayOf("text", keys.toArray()));
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) stored.put(rs.getString("key"), rs.getString("response"));
+        }
+        return stored;
+    }
+
+    /** Reads a live stored response from Postgres. */
+    public static String stored(Connection conn, String merchantId, String key) throws Exception {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT response FROM idempotency_keys WHERE key = ? AND merchant_id = ?::uuid AND expires_at > CURRENT_TIMESTAMP")) {
+            stmt.setString(1, key);
+            stmt.setString(2, merchantId);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getString("response") : null;
+        }
+    }
+
+    /** Publishes the final response to waiters and the Redis tier. Call after commit. */
+    public static void complete(String merchantId, String key, String response) {
+        String id = id(merchantId, key);
+        try (Jedis jedis = Redis.get()) {
+            jedis.set(id, response, SetParams.setParams().ex(TTL_SECONDS));
+        } catch (Exception e) { e.printStackTrace(); }
+        CompletableFuture<String> future = inflight.remove(id);
+        if (future != null) future.complete(response);
+    }
+
+    /** Publishes several final responses to the Redis tier in one pipeline. Call after commit. */
+    public static void completeAll(String merchantId, Map<String, String> responses) {
+        if (responses.isEmpty()) return;
+        try (Jedis jedis = Redis.get()) {
+            Pipeline p = jedis.pipelined();
+            responses.forEach((key, response) -> p.set(id(merchantId, key), response, SetParams.setParams().ex(TTL_SECONDS)));
+            p.sync();
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    /** Releases a reservation after a failed request so a retry can proceed. */
+    public static void abandon(String merchantId, String key) {
+        String id = id(merchantId, key);
+        try (Jedis jedis = Redis.get()) {
+            // Only drop our own placeholder, never a completed response
+            jedis.eval("if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end return 0", 1, id, PENDING);
+        } catch (Exception e) { e.printStackTrace(); }
+        CompletableFuture<String> future = inflight.remove(id);
+        if (future != null) future.complete(null);
+    }
+
+    private static String reserveOrFetch(String id, String merchantId, String key, long deadline) throws Exception {
+        try (Jedis jedis = Redis.get()) {
+            while (true) {
+                if ("OK".equals(jedis.set(id, PENDING, SetParams.setParams().nx().px(RESERVATION_MS)))) return null;
+                String value = jedis.get(id);
+                if (value != null && !PENDING.equals(value)) return value;
+                if (System.currentTimeMillis() > deadline) throw new InProgressException();
+                // Reserved by another API instance; its result lands in the same key
+                Thread.sleep(25);
+            }
+        } catch (JedisException e) {
+            // Redis unavailable: fall back to Postgres, whose per-key lock still prevents duplicates
+            try (Connection conn = Database.connect()) {
+                return stored(conn, merchantId, key);
+            }
+        }
+    }
+
+    private static String await(CompletableFuture<String> leader, long deadline) throws Exception {
+        try {
+            return leader.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new InProgressException();
+        }
+    }
+
+    private static String id(String merchantId, String key) {
+        return "idem:" + merchantId + ":" + key;
+    }
+}
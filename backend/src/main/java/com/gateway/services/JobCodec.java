@@ -0,0 +1,215 @@
+package com.gateway.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Wire format of queue entries. Entries are written as a compact binary envelope:
+ *
+ *   magic 0xFE, version, type, flags, id, attempts, enqueuedAt, [merchant], [trace], [state], payload
+ *
+ * Known job types are one byte, UUIDs (ids, merchants, traces) are their 16 raw bytes, numbers
+ * are varints and strings are length-prefixed UTF-8. The payload is stored as-is, the plain
+ * payment or refund id or the webhook's JSON document, instead of JSON escaped inside JSON.
+ * Decoding reads fields straight from the bytes without Jackson.
+ *
+ * Entries that start with '{' are the JSON JobPayloads written before this format and are
+ * still read; JOB_WIRE_FORMAT=json keeps writing them while older workers are still running.
+ */
+final class JobCodec {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final boolean WRITE_JSON = Env.get("JOB_WIRE_FORMAT", "binary").equalsIgnoreCase("json");
+
+    private static final byte MAGIC = (byte) 0xFE;
+    private static final byte VERSION = 1;
+    // Index is the type's code; 0 means the type name follows as a string
+    private static final String[] TYPES = {null, "PROCESS_PAYMENT", "PROCESS_REFUND", "DELIVER_WEBHOOK"};
+
+    private static final int HAS_MERCHANT = 1;
+    private static final int HAS_TRACE = 2;
+    private static final int HAS_STATE = 4;
+
+    private static final byte ID_UUID = 0;
+    private static final byte ID_TEXT = 1;
+    private static final byte ID_HEX = 2;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private JobCodec() {}
+
+    static byte[] encode(JobPayload job) throws Exception {
+        if (WRITE_JSON) return mapper.writeValueAsBytes(job);
+        Writer out = new Writer(64 + (job.getData() != null ? job.getData().length() : 0));
+        out.write(MAGIC);
+        out.write(VERSION);
+        int code = typeCode(job.getType());
+        out.write(code);
+        if (code == 0) out.writeString(job.getType());
+        String data = job.getData() != null ? job.getData() : "";
+        int flags = (job.getMerchantId() != null ? HAS_MERCHANT : 0)
+                | (job.getTraceId() != null ? HAS_TRACE : 0)
+                | (job.getState() != null ? HAS_STATE : 0);
+        out.write(flags);
+        out.writeId(job.getId() != null ? job.getId() : "");
+        out.writeVarint(job.getAttempts());
+        out.writeVarint(job.getEnqueuedAt());
+        if (job.getMerchantId() != null) out.writeId(job.getMerchantId());
+        if (job.getTraceId() != null) out.writeId(job.getTraceId());
+        if (job.getState() != null) out.writeString(job.getState());
+        out.writeString(data);
+        return out.toByteArray();
+    }
+
+    static JobPayload decode(byte[] raw) throws Exception {
+        if (raw.length > 0 && raw[0] == '{') return legacy(raw);
+        if (raw.length < 2 || raw[0] != MAGIC) throw new IllegalArgumentException("not a job envelope");
+        if (raw[1] != VERSION) throw new IllegalArgumentException("unsupported job envelope version " + raw[1]);
+        Reader in = new Reader(raw, 2);
+        JobPayload job = new JobPayload();
+        int code = in.read();
+        if (code >= TYPES.length) throw new IllegalArgumentException("unknown job type code " + code);
+        job.setType(code == 0 ? in.readString() : TYPES[code]);
+        int flags = in.read();
+        job.setId(in.readId());
+        job.setAttempts((int) in.readVarint());
+        job.setEnqueuedAt(in.readVarint());
+        if ((flags & HAS_MERCHANT) != 0) job.setMerchantId(in.readId());
+        if ((flags & HAS_TRACE) != 0) job.setTraceId(in.readId());
+        if ((flags & HAS_STATE) != 0) job.setState(in.readString());
+        job.setData(in.readString());
+        return job;
+    }
+
+    // Older writers JSON-encoded payment and refund ids, leaving them quoted in data
+    private static JobPayload legacy(byte[] raw) throws Exception {
+        JobPayload job = mapper.readValue(raw, JobPayload.class);
+        if (job.getData() != null && job.getData().startsWith("\"")) job.setData(mapper.readValue(job.getData(), String.class));
+        return job;
+    }
+
+    private static int typeCode(String type) {
+        for (int i = 1; i < TYPES.length; i++) {
+            if (TYPES[i].equals(type)) return i;
+        }
+        return 0;
+    }
+
+    // Canonical lower-case UUID text, the form Postgres and UUID.toString produce
+    private static boolean isUuid(String s) {
+        if (s.length() != 36) return false;
+        for (int i = 0; i < 36; i++) {
+            char c = s.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') return false;
+            } else if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 32 hex digits, as trace ids are written
+    private static boolean isHex128(String s) {
+        if (s.length() != 32) return false;
+        for (int i = 0; i < 32; i++) {
+            char c = s.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) return false;
+        }
+        return true;
+    }
+
+    private static final class Writer {
+        private byte[] buf;
+        private int len;
+
+        Writer(int capacity) { buf = new byte[capacity]; }
+
+        void write(int b) {
+            if (len == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+            buf[len++] = (byte) b;
+        }
+
+        void writeVarint(long v) {
+            while ((v & ~0x7FL) != 0) {
+                write((int) (v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            if (len + bytes.length > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + bytes.length));
+            System.arraycopy(bytes, 0, buf, len, bytes.length);
+            len += bytes.length;
+        }
+
+        // UUIDs and trace ids as their 16 bytes, anything else as text
+        void writeId(String id) {
+            byte tag = isUuid(id) ? ID_UUID : isHex128(id) ? ID_HEX : ID_TEXT;
+            write(tag);
+            if (tag == ID_TEXT) {
+                writeString(id);
+                return;
+            }
+            for (int i = 0; i < id.length(); i += 2) {
+                if (id.charAt(i) == '-') i++;
+                write(Character.digit(id.charAt(i), 16) << 4 | Character.digit(id.charAt(i + 1), 16));
+            }
+        }
+
+        byte[] toByteArray() { return Arrays.copyOf(buf, len); }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        int read() {
+            if (pos >= buf.length) throw new IllegalArgumentException("truncated job envelope");
+            return buf[pos++] & 0xFF;
+        }
+
+        long readVarint() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IllegalArgumentException("malformed varint in job envelope");
+        }
+
+        String readString() {
+            int n = (int) readVarint();
+            if (n < 0 || n > buf.length - pos) throw new IllegalArgumentException("truncated job envelope");
+            String s = new String(buf, pos, n, StandardCharsets.UTF_8);
+            pos += n;
+            return s;
+        }
+
+        String readId() {
+            int tag = read();
+            if (tag == ID_TEXT) return readString();
+            if (tag != ID_UUID && tag != ID_HEX) throw new IllegalArgumentException("unknown id tag " + tag);
+            if (buf.length - pos < 16) throw new IllegalArgumentException("truncated job envelope");
+            boolean dashed = tag == ID_UUID;
+            char[] out = new char[dashed ? 36 : 32];
+            int o = 0;
+            for (int i = 0; i < 16; i++) {
+                if (dashed && (i == 4 || i == 6 || i == 8 || i == 10)) out[o++] = '-';
+                int b = buf[pos + i] & 0xFF;
+                out[o++] = HEX[b >>> 4];
+                out[o++] = HEX[b & 0xF];
+            }
+            pos += 16;
+            return new String(out);
+        }
+    }
+}
@@ -1,16 +1,50 @@
 package com.gateway.services;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class JobPayload {
+    private String id;
     private String type;
     private String data;
+    // Routes the job to its merchant's queue; null for jobs that belong to no merchant
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String merchantId;
+    private int attempts;
+    // Continuation state of a resumed job; null (and omitted) on its first run
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String state;
+    // Epoch ms at which the job became runnable; the worker reports queue lag from it
+    private long enqueuedAt;
+    // Set on first enqueue and kept across retries and resumes; jobs enqueued while a job runs inherit it
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String traceId;
+    // Exact bytes as stored in Redis, needed to remove the entry from a processing list
+    private transient byte[] raw;
 
     public JobPayload() {}
     public JobPayload(String type, String data) {
         this.type = type;
         this.data = data;
     }
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
     public String getType() { return type; }
     public void setType(String type) { this.type = type; }
+    public String getMerchantId() { return merchantId; }
+    public void setMerchantId(String merchantId) { this.merchantId = merchantId; }
     public String getData() { return data; }
     public void setData(String data) { this.data = data; }
-}
\ No newline at end of file
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+    public String getState() { return state; }
+    public void setState(String state) { this.state = state; }
+    public long getEnqueuedAt() { return enqueuedAt; }
+    public void setEnqueuedAt(long enqueuedAt) { this.enqueuedAt = enqueuedAt; }
+    public String getTraceId() { return traceId; }
+    public void setTraceId(String traceId) { this.traceId = traceId; }
+
+    byte[] raw() { return raw; }
+    void raw(byte[] raw) { this.raw = raw; }
+}
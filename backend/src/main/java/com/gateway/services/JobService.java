@@ -1,34 +1,539 @@
 package com.gateway.services;
 
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
-import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.args.ListDirection;
+import redis.clients.jedis.commands.PipelineBinaryCommands;
+import redis.clients.jedis.util.SafeEncoder;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Redis-backed job queue, partitioned by merchant so one merchant's backlog never sits in
+ * front of another's. Each merchant has its own list (job_queue:m:&lt;merchant&gt;) and merchants
+ * are hashed into JOB_SHARDS shards; a shard's ready set (job_ready:&lt;shard&gt;) names the
+ * merchants with queued work, and each shard is served by one live worker. Jobs that belong
+ * to no merchant share the "_" list.
+ *
+ * Consumers move jobs from a merchant list into their own processing list
+ * (job_queue:processing:&lt;worker&gt;) and remove them only on {@link #ack}, so a crashed
+ * worker's jobs are reclaimed once its heartbeat in job_workers goes stale. Jobs that keep
+ * failing end up in job_queue:dead. Entries are binary envelopes, see {@link JobCodec}.
+ */
 public class JobService {
-    private static final String REDIS_HOST = System.getenv("REDIS_URL") != null ? "redis_gateway" : "localhost";
-    private static final JedisPool pool = new JedisPool(new JedisPoolConfig(), REDIS_HOST, 6379);
     private static final ObjectMapper mapper = new ObjectMapper();
 
-    public static void enqueueJob(String jobType, Object dataObject) {
-        try (Jedis jedis = pool.getResource()) {
+    // Single list used before the queue was partitioned; drained into merchant lists
+    private static final String LEGACY_QUEUE = "job_queue";
+    private static final String MERCHANT_QUEUE_PREFIX = "job_queue:m:";
+    private static final String READY_PREFIX = "job_ready:";
+    private static final String DEAD_LETTER = "job_queue:dead";
+    private static final String SCHEDULED = "job_scheduled";
+    private static final String WORKERS = "job_workers";
+    private static final String PROCESSING_PREFIX = "job_queue:processing:";
+    private static final String NO_MERCHANT = "_";
+    // Jobs in all merchant queues, kept by push and the scripts so depth is one GET
+    private static final String DEPTH = "job_queue:depth";
+    private static final byte[] DEPTH_KEY = bytes(DEPTH);
+    private static final long RECOUNT_INTERVAL_MS = 60_000;
+    private static final byte[] LEGACY_QUEUE_KEY = bytes(LEGACY_QUEUE);
+    private static final byte[] DEAD_LETTER_KEY = bytes(DEAD_LETTER);
+    private static final byte[] SCHEDULED_KEY = bytes(SCHEDULED);
+
+    public static final int SHARDS = Math.max(1, Env.getInt("JOB_SHARDS", 32));
+    private static final int MAX_ATTEMPTS = Env.getInt("JOB_MAX_ATTEMPTS", 5);
+    private static final long VISIBILITY_TIMEOUT_MS = Env.getInt("JOB_VISIBILITY_TIMEOUT_MS", 30_000);
+    private static final int PROMOTE_BATCH = 500;
+
+    // Takes up to ARGV[1] jobs from a merchant list and clears the merchant's ready flag once
+    // the list is empty, atomically, so a concurrent push can never be left without its flag
+    private static final byte[] FETCH_SCRIPT = bytes(
+            "local out = {} " +
+            "for i = 1, tonumber(ARGV[1]) do " +
+            "  local job = redis.call('LMOVE', KEYS[1], KEYS[2], 'LEFT', 'RIGHT') " +
+            "  if not job then break end " +
+            "  out[#out + 1] = job " +
+            "end " +
+            "if redis.call('LLEN', KEYS[1]) == 0 then redis.call('SREM', KEYS[3], ARGV[2]) end " +
+            "if #out > 0 then redis.call('DECRBY', KEYS[4], #out) end " +
+            "return out");
+
+    // Moves one member from the schedule (or the legacy list) to its merchant list; only the
+    // caller that removed it pushes it, so concurrent schedulers never promote a job twice
+    private static final byte[] PROMOTE_SCRIPT = bytes(
+            "if redis.call('ZREM', KEYS[1], ARGV[1]) == 1 then " +
+            "  redis.call('RPUSH', KEYS[2], ARGV[1]) " +
+            "  redis.call('SADD', KEYS[3], ARGV[2]) " +
+            "  redis.call('INCR', KEYS[4]) " +
+            "  return 1 " +
+            "end " +
+            "return 0");
+    private static final byte[] MIGRATE_SCRIPT = bytes(
+            "if redis.call('LREM', KEYS[1], 1, ARGV[1]) == 1 then " +
+            "  redis.call('RPUSH', KEYS[2], ARGV[1]) " +
+            "  redis.call('SADD', KEYS[3], ARGV[2]) " +
+            "  redis.call('INCR', KEYS[4]) " +
+            "  return 1 " +
+            "end " +
+            "return 0");
+    // Resets the depth counter to the sum of the merchant queue lengths in one atomic step,
+    // correcting any drift from a pipeline cut off between a push and its INCR
+    private static final byte[] RECOUNT_SCRIPT = bytes(
+            "local depth = 0 " +
+            "for shard = 0, tonumber(ARGV[1]) - 1 do " +
+            "  for _, merchant in ipairs(redis.call('SMEMBERS', ARGV[2] .. shard)) do " +
+            "    depth = depth + redis.call('LLEN', ARGV[3] .. merchant) " +
+            "  end " +
+            "end " +
+            "redis.call('SET', KEYS[1], depth) " +
+            "return depth");
+
+    private static final String WORKER_ID = Env.get("WORKER_ID", ManagementFactory.getRuntimeMXBean().getName());
+    private static final String PROCESSING = PROCESSING_PREFIX + WORKER_ID;
+    private static final byte[] PROCESSING_KEY = bytes(PROCESSING);
+
+    // Trace id of the job running on this thread, inherited by the jobs it enqueues
+    private static final ThreadLocal<String> currentTrace = new ThreadLocal<>();
+    private static volatile long lastRecount;
+
+    public static void enqueueJob(String jobType, String merchantId, Object dataObject) {
+        try (Jedis jedis = Redis.get()) {
             String dataJson = (dataObject instanceof String) ? (String) dataObject : mapper.writeValueAsString(dataObject);
             JobPayload payload = new JobPayload(jobType, dataJson);
-            jedis.rpush("job_queue", mapper.writeValueAsString(payload));
+            payload.setId(UUID.randomUUID().toString());
+            payload.setMerchantId(merchantId);
+            payload.setEnqueuedAt(System.currentTimeMillis());
+            payload.setTraceId(inheritedTrace());
+            Transaction tx = jedis.multi();
+            push(tx, payload, encode(payload), false);
+            tx.exec();
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    /**
+     * Enqueues many jobs in a single pipelined round trip. Unlike {@link #enqueueJob}
+     * this throws, so callers such as the outbox relay can keep the rows and retry.
+     */
+    public static void enqueueBatch(List<JobPayload> jobs) throws Exception {
+        if (jobs.isEmpty()) return;
+        try (Jedis jedis = Redis.get()) {
+            Pipeline p = jedis.pipelined();
+            for (JobPayload job : jobs) {
+                if (job.getId() == null) job.setId(UUID.randomUUID().toString());
+                job.setEnqueuedAt(System.currentTimeMillis());
+                if (job.getTraceId() == null) job.setTraceId(inheritedTrace());
+                push(p, job, encode(job), false);
+            }
+            p.sync();
+        }
+    }
+
+    /** Enqueues a job to run at {@code dueAtMillis} (epoch ms) instead of immediately. */
+    public static void scheduleJob(String jobType, String merchantId, Object dataObject, long dueAtMillis) {
+        try (Jedis jedis = Redis.get()) {
+            String dataJson = (dataObject instanceof String) ? (String) dataObject : mapper.writeValueAsString(dataObject);
+            JobPayload payload = new JobPayload(jobType, dataJson);
+            payload.setId(UUID.randomUUID().toString());
+            payload.setMerchantId(merchantId);
+            payload.setEnqueuedAt(dueAtMillis);
+            payload.setTraceId(inheritedTrace());
+            jedis.zadd(SCHEDULED_KEY, dueAtMillis, encode(payload));
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    /**
+     * Parks a running job until {@code next.dueAtMillis}: the continuation is added to the
+     * schedule and the job leaves this worker's processing list in one transaction, so the
+     * job is never lost or run twice by a crash in between. The attempt count carries over.
+     */
+    public static void suspend(JobPayload job, Continuation next) {
+        park(job, next.state, next.dueAtMillis);
+    }
+
+    /** Runs a job again at {@code dueAtMillis} unchanged and without counting an attempt, e.g. when a downstream queue is full. */
+    public static void defer(JobPayload job, long dueAtMillis) {
+        park(job, job.getState(), dueAtMillis);
+    }
+
+    private static void park(JobPayload job, String state, long dueAtMillis) {
+        try (Jedis jedis = Redis.get()) {
+            JobPayload resumed = new JobPayload(job.getType(), job.getData());
+            resumed.setId(job.getId());
+            resumed.setMerchantId(job.getMerchantId());
+            resumed.setAttempts(job.getAttempts());
+            resumed.setState(state);
+            resumed.setEnqueuedAt(dueAtMillis);
+            resumed.setTraceId(job.getTraceId());
+            Transaction tx = jedis.multi();
+            tx.zadd(SCHEDULED_KEY, dueAtMillis, encode(resumed));
+            tx.lrem(PROCESSING_KEY, 1, job.raw());
+            tx.exec();
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    /**
+     * Moves every job whose due time has passed onto its merchant's queue, and drains any
+     * entries still in the pre-partitioning job_queue list. Returns how many moved.
+     */
+    public static int promoteDueJobs() {
+        try (Jedis jedis = Redis.get()) {
+            int total = 0;
+            List<byte[]> due;
+            do {
+                due = jedis.zrangeByScore(SCHEDULED_KEY, Double.NEGATIVE_INFINITY, System.currentTimeMillis(), 0, PROMOTE_BATCH);
+                total += route(jedis, due, SCHEDULED, PROMOTE_SCRIPT);
+            } while (due.size() == PROMOTE_BATCH);
+            if (jedis.llen(LEGACY_QUEUE) > 0) total += route(jedis, jedis.lrange(LEGACY_QUEUE_KEY, 0, PROMOTE_BATCH - 1), LEGACY_QUEUE, MIGRATE_SCRIPT);
+            return total;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    private static int route(Jedis jedis, List<byte[]> entries, String source, byte[] script) {
+        if (entries.isEmpty()) return 0;
+        byte[] sourceKey = bytes(source);
+        Pipeline p = jedis.pipelined();
+        List<Response<Object>> moved = new ArrayList<>(entries.size());
+        for (byte[] raw : entries) {
+            JobPayload job;
+            try {
+                job = parse(raw);
+            } catch (Exception e) {
+                System.out.println("JobService: dead-lettering malformed job from " + source + ": " + e.getMessage());
+                if (source.equals(SCHEDULED)) p.zrem(sourceKey, raw);
+                else p.lrem(sourceKey, 1, raw);
+                p.lpush(DEAD_LETTER_KEY, raw);
+                continue;
+            }
+            String merchant = merchant(job);
+            moved.add(p.eval(script, List.of(sourceKey, bytes(queueKey(merchant)), bytes(readyKey(merchant)), DEPTH_KEY), List.of(raw, bytes(merchant))));
+        }
+        p.sync();
+        int total = 0;
+        for (Response<Object> r : moved) total += ((Long) r.get()).intValue();
+        return total;
+    }
+
+    /** Exposes queue depths as gauges, read from Redis on each scrape. */
+    public static void registerMetrics() {
+        Metrics.gauge("job_queue_depth", "Jobs waiting in merchant queues", JobService::queueDepth);
+        Metrics.gauge("job_ready_merchants", "Merchants with queued jobs", () -> {
+            try (Jedis jedis = Redis.get()) { return readyMerchants(jedis, allShards()).size(); }
+        });
+        Metrics.gauge("job_scheduled_depth", "Jobs waiting in job_scheduled for their due time", () -> {
+            try (Jedis jedis = Redis.get()) { return jedis.zcard(SCHEDULED); }
+        });
+        Metrics.gauge("job_dead_letter_depth", "Jobs in job_queue:dead", () -> {
+            try (Jedis jedis = Redis.get()) { return jedis.llen(DEAD_LETTER); }
+        });
+    }
+
+    /**
+     * Jobs waiting in all merchant queues (and the legacy list); not counting scheduled or in-flight
+     * jobs. Read from the depth counter, so it costs two O(1) commands however many merchants there are.
+     */
+    public static long queueDepth() {
+        try (Jedis jedis = Redis.get()) {
+            Pipeline p = jedis.pipelined();
+            Response<String> counted = p.get(DEPTH);
+            Response<Long> legacy = p.llen(LEGACY_QUEUE);
+            p.sync();
+            return Math.max(0, counted.get() != null ? Long.parseLong(counted.get()) : 0) + legacy.get();
+        }
+    }
+
+    /** Merchants with queued work in the given shards, in a stable order. */
+    public static List<String> readyMerchants(Collection<Integer> shards) {
+        try (Jedis jedis = Redis.get()) {
+            return new ArrayList<>(readyMerchants(jedis, shards));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return List.of();
+        }
+    }
+
+    private static Set<String> readyMerchants(Jedis jedis, Collection<Integer> shards) {
+        Pipeline p = jedis.pipelined();
+        List<Response<Set<String>>> members = new ArrayList<>(shards.size());
+        for (int shard : shards) members.add(p.smembers(READY_PREFIX + shard));
+        p.sync();
+        Set<String> merchants = new TreeSet<>();
+        for (Response<Set<String>> r : members) merchants.addAll(r.get());
+        return merchants;
+    }
+
+    /**
+     * Takes up to {@code wanted.get(merchant)} jobs from each merchant's queue into this
+     * worker's processing list, all in one round trip. Every returned job must be acked,
+     * failed, requeued or suspended.
+     */
+    public static Map<String, List<JobPayload>> fetch(Map<String, Integer> wanted) {
+        Map<String, List<JobPayload>> fetched = new LinkedHashMap<>();
+        if (wanted.isEmpty()) return fetched;
+        try (Jedis jedis = Redis.get()) {
+            Pipeline p = jedis.pipelined();
+            Map<String, Response<Object>> responses = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> e : wanted.entrySet()) {
+                String merchant = e.getKey();
+                responses.put(merchant, p.eval(FETCH_SCRIPT, List.of(bytes(queueKey(merchant)), PROCESSING_KEY, bytes(readyKey(merchant)), DEPTH_KEY),
+                        List.of(bytes(String.valueOf(e.getValue())), bytes(merchant))));
+            }
+            p.sync();
+            for (Map.Entry<String, Response<Object>> e : responses.entrySet()) {
+                List<JobPayload> jobs = new ArrayList<>();
+                for (Object raw : (List<?>) e.getValue().get()) {
+                    JobPayload job = decode(jedis, (byte[]) raw);
+                    if (job != null) jobs.add(job);
+                }
+                fetched.put(e.getKey(), jobs);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            try { Thread.sleep(1000); } catch (InterruptedException ignored) { Thread.currentThread().interrupt(); }
+        }
+        return fetched;
+    }
+
+    /** Marks a job done and drops it from this worker's processing list. */
+    public static void ack(JobPayload job) {
+        try (Jedis jedis = Redis.get()) {
+            jedis.lrem(PROCESSING_KEY, 1, job.raw());
         } catch (Exception e) { e.printStackTrace(); }
     }
 
-    public static JobPayload waitForJob() {
-        try (Jedis jedis = pool.getResource()) {
-            List<String> result = jedis.blpop(0, "job_queue");
-            if (result != null && result.size() > 1) {
-                return mapper.readValue(result.get(1), JobPayload.class);
+    /** Re-queues a failed job with its attempt count bumped, or dead-letters it past JOB_MAX_ATTEMPTS. */
+    public static void fail(JobPayload job, Exception cause) {
+        try (Jedis jedis = Redis.get()) {
+            retryOrDeadLetter(jedis, PROCESSING_KEY, job, cause == null ? "unknown" : cause.toString());
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    /** Dead-letters a job that can never succeed (e.g. no worker handles its type) without retrying it. */
+    public static void deadLetter(JobPayload job, String reason) {
+        try (Jedis jedis = Redis.get()) {
+            logDeadLetter(job, reason);
+            Transaction tx = jedis.multi();
+            tx.lrem(PROCESSING_KEY, 1, job.raw());
+            tx.lpush(DEAD_LETTER_KEY, job.raw());
+            tx.exec();
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    /**
+     * Puts jobs back at the head of their merchant's queue without counting an attempt, e.g. when
+     * their lane is full. Pushed last to first so the queue keeps them in the order given.
+     */
+    public static void requeue(List<JobPayload> jobs) {
+        if (jobs.isEmpty()) return;
+        try (Jedis jedis = Redis.get()) {
+            Transaction tx = jedis.multi();
+            for (int i = jobs.size() - 1; i >= 0; i--) {
+                JobPayload job = jobs.get(i);
+                tx.lrem(PROCESSING_KEY, 1, job.raw());
+                push(tx, job, job.raw(), true);
             }
-        } catch (Exception e) { 
-            e.printStackTrace(); 
-            try { Thread.sleep(5000); } catch (Exception ignored) {}
+            tx.exec();
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    /**
+     * Refreshes this worker's heartbeat and reclaims jobs stranded in the processing
+     * lists of workers whose heartbeat is older than the visibility timeout. Once a minute
+     * it also recounts the queue depth counter. Call periodically.
+     */
+    public static void heartbeat() {
+        try (Jedis jedis = Redis.get()) {
+            long now = System.currentTimeMillis();
+            jedis.zadd(WORKERS, now, WORKER_ID);
+            for (String dead : jedis.zrangeByScore(WORKERS, 0, now - VISIBILITY_TIMEOUT_MS)) {
+                reclaim(jedis, dead);
+            }
+            if (now - lastRecount > RECOUNT_INTERVAL_MS) {
+                jedis.eval(RECOUNT_SCRIPT, List.of(DEPTH_KEY), List.of(bytes(String.valueOf(SHARDS)), bytes(READY_PREFIX), bytes(MERCHANT_QUEUE_PREFIX)));
+                lastRecount = now;
+            }
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    /**
+     * Shards this worker should serve: each shard goes to the live worker with the highest
+     * rendezvous hash for it, so every worker computes the same assignment from the heartbeat
+     * set, and a worker joining or leaving moves only about 1/N of the shards. While views
+     * differ briefly a shard may be served twice, which is safe because fetches are atomic.
+     */
+    public static List<Integer> assignedShards() {
+        Set<String> workers = new TreeSet<>();
+        workers.add(WORKER_ID);
+        try (Jedis jedis = Redis.get()) {
+            workers.addAll(jedis.zrangeByScore(WORKERS, String.valueOf(System.currentTimeMillis() - VISIBILITY_TIMEOUT_MS), "+inf"));
+        } catch (Exception e) { e.printStackTrace(); }
+        List<Integer> owned = new ArrayList<>();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            String owner = null;
+            long best = 0;
+            for (String worker : workers) {
+                long score = mix(worker.hashCode() * 0x9E3779B97F4A7C15L + shard);
+                if (owner == null || Long.compareUnsigned(score, best) > 0) {
+                    owner = worker;
+                    best = score;
+                }
+            }
+            if (WORKER_ID.equals(owner)) owned.add(shard);
+        }
+        return owned;
+    }
+
+    /** Leaves the worker set after a clean shutdown so its shards move without waiting for the heartbeat to expire. */
+    public static void leave() {
+        try (Jedis jedis = Redis.get()) {
+            // Only once nothing is left to reclaim; otherwise the stale heartbeat still triggers recovery
+            if (jedis.llen(PROCESSING) == 0) jedis.zrem(WORKERS, WORKER_ID);
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    /** Recovers jobs left in this worker's processing list by a previous run with the same WORKER_ID. */
+    public static void recoverOwnJobs() {
+        try (Jedis jedis = Redis.get()) {
+            List<byte[]> stranded = jedis.lrange(PROCESSING_KEY, 0, -1);
+            for (byte[] raw : stranded) {
+                JobPayload job = decode(jedis, raw);
+                if (job != null) retryOrDeadLetter(jedis, PROCESSING_KEY, job, "worker restarted while running it");
+            }
+            if (!stranded.isEmpty()) System.out.println("JobService: recovered " + stranded.size() + " jobs from previous run");
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    private static void reclaim(Jedis jedis, String deadWorker) throws Exception {
+        byte[] source = bytes(PROCESSING_PREFIX + deadWorker);
+        byte[] raw;
+        int count = 0;
+        // Move one at a time into our own processing list so a crash mid-reclaim loses nothing
+        while ((raw = jedis.lmove(source, PROCESSING_KEY, ListDirection.LEFT, ListDirection.RIGHT)) != null) {
+            JobPayload job = decode(jedis, raw);
+            if (job != null) retryOrDeadLetter(jedis, PROCESSING_KEY, job, "worker " + deadWorker + " stopped responding");
+            count++;
+        }
+        jedis.zrem(WORKERS, deadWorker);
+        if (count > 0) System.out.println("JobService: reclaimed " + count + " jobs from " + deadWorker);
+    }
+
+    private static void retryOrDeadLetter(Jedis jedis, byte[] list, JobPayload job, String reason) throws Exception {
+        job.setAttempts(job.getAttempts() + 1);
+        job.setEnqueuedAt(System.currentTimeMillis());
+        byte[] updated = encode(job);
+        Transaction tx = jedis.multi();
+        tx.lrem(list, 1, job.raw());
+        if (job.getAttempts() >= MAX_ATTEMPTS) {
+            logDeadLetter(job, reason);
+            tx.lpush(DEAD_LETTER_KEY, updated);
+        } else {
+            push(tx, job, updated, false);
+        }
+        tx.exec();
+    }
+
+    private static void logDeadLetter(JobPayload job, String reason) {
+        System.out.println("JobService: dead-lettering " + job.getType() + " " + job.getId() + " (trace " + job.getTraceId() + ") after " + job.getAttempts() + " attempts: " + reason);
+    }
+
+    // Queues the entry on its merchant's list and flags the merchant as ready in its shard
+    private static void push(PipelineBinaryCommands p, JobPayload job, byte[] raw, boolean head) {
+        String merchant = merchant(job);
+        byte[] queue = bytes(queueKey(merchant));
+        if (head) p.lpush(queue, raw);
+        else p.rpush(queue, raw);
+        p.incr(DEPTH_KEY);
+        p.sadd(bytes(readyKey(merchant)), bytes(merchant));
+    }
+
+    private static String merchant(JobPayload job) {
+        return job.getMerchantId() != null ? job.getMerchantId() : NO_MERCHANT;
+    }
+
+    public static int shard(String merchant) {
+        // String.hashCode is specified, so every process maps a merchant to the same shard
+        return Math.floorMod(merchant.hashCode(), SHARDS);
+    }
+
+    private static String queueKey(String merchant) {
+        return MERCHANT_QUEUE_PREFIX + merchant;
+    }
+
+    private static String readyKey(String merchant) {
+        return READY_PREFIX + shard(merchant);
+    }
+
+    private static List<Integer> allShards() {
+        List<Integer> shards = new ArrayList<>(SHARDS);
+        for (int i = 0; i < SHARDS; i++) shards.add(i);
+        return shards;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Sets the trace id the running job's follow-up jobs inherit; null clears it. */
+    public static void setCurrentTrace(String traceId) {
+        if (traceId != null) currentTrace.set(traceId);
+        else currentTrace.remove();
+    }
+
+    /** The running job's trace id, or null outside a job. */
+    public static String currentTrace() {
+        return currentTrace.get();
+    }
+
+    // The running job's trace, or a new one (W3C trace-id form) for a job started from outside a job
+    private static String inheritedTrace() {
+        String trace = currentTrace.get();
+        if (trace != null) return trace;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return String.format("%016x%016x", random.nextLong(), random.nextLong());
+    }
+
+    private static byte[] bytes(String s) {
+        return SafeEncoder.encode(s);
+    }
+
+    /** Wire format of a queue entry. */
+    static byte[] encode(JobPayload job) throws Exception {
+        return JobCodec.encode(job);
+    }
+
+    static JobPayload parse(byte[] raw) throws Exception {
+        JobPayload job = JobCodec.decode(raw);
+        job.raw(raw);
+        return job;
+    }
+
+    private static JobPayload decode(Jedis jedis, byte[] raw) {
+        try {
+            return parse(raw);
+        } catch (Exception e) {
+            // Unparseable entries can never succeed, so they go straight to the dead-letter queue
+            System.out.println("JobService: dead-lettering malformed job: " + e.getMessage());
+            Transaction tx = jedis.multi();
+            tx.lrem(PROCESSING_KEY, 1, raw);
+            tx.lpush(DEAD_LETTER_KEY, raw);
+            tx.exec();
+            return null;
         }
-        return null;
     }
-}
\ No newline at end of file
+}
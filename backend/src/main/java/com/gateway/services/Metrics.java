@@ -0,0 +1,204 @@
+package com.gateway.services;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * In-process metrics registry rendered in the Prometheus text format.
+ *
+ * The hot path is lock-free: a labelled series is looked up once per event in a
+ * ConcurrentHashMap (callers on very hot paths can keep the returned Counter/Histogram),
+ * counters are LongAdders and histograms bucket by the highest set bit of the duration in
+ * nanoseconds and the two bits below it, so recording costs a map lookup plus three
+ * uncontended adds. Rendering walks the registry on scrape only.
+ */
+public class Metrics {
+    // From ~8us (2^13 ns) to ~34s (2^35 ns), each power of two split into 4 linear
+    // sub-buckets (upper bounds 1.25, 1.5, 1.75 and 2 times the power), so a bucket is
+    // at most 25% wide. Bucket 0 holds everything up to 2^13 ns, the last one is +Inf.
+    private static final int MIN_EXP = 13;
+    private static final int MAX_EXP = 35;
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (MAX_EXP - MIN_EXP) * SUB_BUCKETS + 2;
+    private static final String[] BUCKET_LABELS = new String[BUCKETS];
+
+    static {
+        for (int i = 0; i < BUCKETS - 1; i++) BUCKET_LABELS[i] = "le=\"" + seconds(upperBound(i)) + "\"";
+        BUCKET_LABELS[BUCKETS - 1] = "le=\"+Inf\"";
+    }
+
+    private static final ConcurrentSkipListMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+        public void inc() { value.increment(); }
+        public void add(long n) { value.add(n); }
+    }
+
+    public static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < BUCKETS; i++) buckets[i] = new LongAdder();
+        }
+
+        public void observeNanos(long nanos) {
+            if (nanos < 0) nanos = 0;
+            buckets[bucket(nanos)].increment();
+            count.increment();
+            sumNanos.add(nanos);
+        }
+
+        /** Records the time elapsed since {@code startNanos} (a {@link System#nanoTime} value). */
+        public void observeSince(long startNanos) {
+            observeNanos(System.nanoTime() - startNanos);
+        }
+    }
+
+    // Index of the bucket whose upper bound is the smallest one >= nanos
+    static int bucket(long nanos) {
+        if (nanos <= 1L << MIN_EXP) return 0;
+        long x = nanos - 1;
+        int exp = 63 - Long.numberOfLeadingZeros(x);
+        if (exp >= MAX_EXP) return BUCKETS - 1;
+        int sub = (int) (x >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return 1 + (exp - MIN_EXP) * SUB_BUCKETS + sub;
+    }
+
+    // Inclusive upper bound in nanoseconds of every bucket but the last
+    static long upperBound(int bucket) {
+        if (bucket == 0) return 1L << MIN_EXP;
+        int exp = MIN_EXP + (bucket - 1) / SUB_BUCKETS;
+        int sub = (bucket - 1) % SUB_BUCKETS;
+        return (1L << exp) + ((sub + 1L) << (exp - SUB_BITS));
+    }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        final String[] labelNames;
+        final ConcurrentHashMap<String, Object> series = new ConcurrentHashMap<>();
+        Family(String name, String help, String type, String[] labelNames) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelNames = labelNames;
+        }
+    }
+
+    /** Returns the counter for these label values, creating the family on first use. */
+    public static Counter counter(String name, String help, String[] labelNames, String... labelValues) {
+        return (Counter) family(name, help, "counter", labelNames).series.computeIfAbsent(labels(labelNames, labelValues), k -> new Counter());
+    }
+
+    public static Histogram histogram(String name, String help, String[] labelNames, String... labelValues) {
+        return (Histogram) family(name, help, "histogram", labelNames).series.computeIfAbsent(labels(labelNames, labelValues), k -> new Histogram());
+    }
+
+    /** Registers a gauge whose value is read at scrape time. */
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        family(name, help, "gauge", new String[0]).series.put("", value);
+    }
+
+    private static Family family(String name, String help, String type, String[] labelNames) {
+        Family family = families.get(name);
+        if (family == null) family = families.computeIfAbsent(name, k -> new Family(name, help, type, labelNames));
+        return family;
+    }
+
+    private static String labels(String[] names, String[] values) {
+        if (names.length != values.length) throw new IllegalArgumentException("Expected labels " + Arrays.toString(names));
+        if (names.length == 0) return "";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(names[i]).append("=\"").append(escape(values[i])).append('"');
+        }
+        return sb.toString();
+    }
+
+    private static String escape(String value) {
+        if (value == null) return "";
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /** Prometheus text exposition format 0.0.4. */
+    public static String render() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        for (Family f : families.values()) {
+            out.append("# HELP ").append(f.name).append(' ').append(f.help).append('\n');
+            out.append("# TYPE ").append(f.name).append(' ').append(f.type).append('\n');
+            for (Map.Entry<String, Object> e : f.series.entrySet()) {
+                String labels = e.getKey();
+                Object metric = e.getValue();
+                if (metric instanceof Counter) {
+                    sample(out, f.name, labels, null, ((Counter) metric).value.sum());
+                } else if (metric instanceof DoubleSupplier) {
+                    double value;
+                    try {
+                        value = ((DoubleSupplier) metric).getAsDouble();
+                    } catch (Exception ex) {
+                        continue; // e.g. Redis down: skip rather than fail the whole scrape
+                    }
+                    sample(out, f.name, labels, null, value);
+                } else {
+                    Histogram h = (Histogram) metric;
+                    long cumulative = 0;
+                    for (int i = 0; i < BUCKETS; i++) {
+                        cumulative += h.buckets[i].sum();
+                        sample(out, f.name + "_bucket", labels, BUCKET_LABELS[i], cumulative);
+                    }
+                    sample(out, f.name + "_sum", labels, null, h.sumNanos.sum() / 1e9);
+                    sample(out, f.name + "_count", labels, null, h.count.sum());
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String extra, double value) {
+        out.append(name);
+        if (!labels.isEmpty() || extra != null) {
+            out.append('{').append(labels);
+            if (extra != null) out.append(labels.isEmpty() ? "" : ",").append(extra);
+            out.append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) out.append((long) value);
+        else out.append(value);
+        out.append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.valueOf(nanos / 1e9);
+    }
+
+    /** Serves /metrics on its own port, for processes without an HTTP server (the worker). */
+    public static void serve(int port) {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = render().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+            System.out.println("Metrics: serving /metrics on port " + port);
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+}
@@ -0,0 +1,115 @@
+package com.gateway.services;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Transactional outbox for jobs. Routes write the job row with {@link #add} in the
+ * same transaction as the business row; a relay thread later moves committed rows
+ * to Redis in pipelined batches, so Redis latency stays off the request path and a
+ * crash between commit and enqueue can no longer strand a payment in "pending".
+ * Each row keeps the trace of the job that wrote it, so jobs queued through the
+ * outbox still inherit it.
+ */
+public class Outbox {
+    private static final int BATCH_SIZE = Env.getInt("OUTBOX_BATCH_SIZE", 500);
+    private static final long IDLE_POLL_MS = Env.getInt("OUTBOX_POLL_MS", 500);
+    private static final Object signal = new Object();
+    private static boolean pending;
+
+    /** {@code merchantId} picks the job's queue partition; null for jobs that belong to no merchant. */
+    public static void add(Connection conn, String jobType, String merchantId, String data) throws Exception {
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO job_outbox (job_type, merchant_id, data, trace_id) VALUES (?, ?::uuid, ?, ?)")) {
+            stmt.setString(1, jobType);
+            stmt.setString(2, merchantId);
+            stmt.setString(3, data);
+            stmt.setString(4, JobService.currentTrace());
+            stmt.executeUpdate();
+        }
+    }
+
+    /** Adds one job per entry with a single JDBC batch. */
+    public static void addAll(Connection conn, String jobType, String merchantId, List<String> data) throws Exception {
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO job_outbox (job_type, merchant_id, data, trace_id) VALUES (?, ?::uuid, ?, ?)")) {
+            String trace = JobService.currentTrace();
+            for (String d : data) {
+                stmt.setString(1, jobType);
+                stmt.setString(2, merchantId);
+                stmt.setString(3, d);
+                stmt.setString(4, trace);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    /** Nudges the relay after a commit so new jobs don't wait for the next poll. */
+    public static void wake() {
+        synchronized (signal) {
+            pending = true;
+            signal.notifyAll();
+        }
+    }
+
+    public static void startRelay() {
+        Thread relay = new Thread(() -> {
+            while (true) {
+                int moved = 0;
+                try {
+                    moved = relayBatch();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                if (moved < BATCH_SIZE) await();
+            }
+        }, "outbox-relay");
+        relay.setDaemon(true);
+        relay.start();
+    }
+
+    private static void await() {
+        synchronized (signal) {
+            try {
+                if (!pending) signal.wait(IDLE_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pending = false;
+        }
+    }
+
+    /**
+     * Claims up to BATCH_SIZE rows, pushes them to Redis and deletes them in one
+     * transaction. If Redis fails the transaction rolls back and the rows are retried,
+     * so delivery is at-least-once. SKIP LOCKED lets several API instances relay in parallel.
+     */
+    static int relayBatch() throws Exception {
+        try (Connection conn = Database.connect()) {
+            conn.setAutoCommit(false);
+            TreeMap<Long, JobPayload> claimed = new TreeMap<>();
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "DELETE FROM job_outbox WHERE id IN (SELECT id FROM job_outbox ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED) RETURNING id, job_type, merchant_id, data, trace_id")) {
+                stmt.setInt(1, BATCH_SIZE);
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    JobPayload job = new JobPayload(rs.getString("job_type"), rs.getString("data"));
+                    job.setMerchantId(rs.getString("merchant_id"));
+                    job.setTraceId(rs.getString("trace_id"));
+                    claimed.put(rs.getLong("id"), job);
+                }
+            }
+            if (claimed.isEmpty()) {
+                conn.commit();
+                return 0;
+            }
+            List<JobPayload> jobs = new ArrayList<>(claimed.values());
+            JobService.enqueueBatch(jobs);
+            conn.commit();
+            return jobs.size();
+        }
+    }
+}
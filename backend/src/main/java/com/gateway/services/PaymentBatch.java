@@ -0,0 +1,219 @@
+package com.gateway.services;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Bulk payment creation for POST /api/v1/payments/batch. Items are validated one by one as
+ * the request body is parsed, then every valid item is written in a single transaction: one
+ * statement for the idempotency keys, one batched INSERT for the payments and one for their
+ * outbox jobs, which the relay pushes to Redis in a pipeline. Each item gets its own result,
+ * so one bad item never fails the rest of the batch.
+ */
+public class PaymentBatch {
+    public static final int MAX_ITEMS = Env.getInt("PAYMENT_BATCH_MAX_ITEMS", 1000);
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /** The body as a whole is unusable (not an array, malformed JSON, too many items). */
+    public static class InvalidBatchException extends Exception {
+        private static final long serialVersionUID = 1L;
+        public InvalidBatchException(String message) { super(message); }
+    }
+
+    private static final class Item {
+        final int index;
+        String paymentId;
+        String orderId;
+        String currency;
+        String method;
+        int amount;
+        String idempotencyKey;
+        Item sameKeyAs;
+        String response;
+        int status;
+        String errorCode;
+        String errorDescription;
+        Item(int index) { this.index = index; }
+
+        void error(int status, String code, String description) {
+            this.status = status;
+            this.errorCode = code;
+            this.errorDescription = description;
+        }
+    }
+
+    /** Creates the payments and returns the per-item results as JSON. */
+    public static String create(String merchantId, InputStream body) throws Exception {
+        // 1. Parse and validate items as they stream in
+        List<Item> items = parse(body);
+
+        // 2. Build responses; repeated keys within the batch share the first item's result
+        Map<String, Item> byKey = new LinkedHashMap<>();
+        List<Item> fresh = new ArrayList<>();
+        for (Item item : items) {
+            if (item.errorCode != null) continue;
+            if (item.idempotencyKey != null) {
+                Item first = byKey.putIfAbsent(item.idempotencyKey, item);
+                if (first != null) {
+                    item.sameKeyAs = first;
+                    continue;
+                }
+            }
+            item.paymentId = "pay_" + UUID.randomUUID().toString().substring(0, 14);
+            item.response = response(item);
+            fresh.add(item);
+        }
+
+        // 3. One transaction for keys, payments and jobs
+        Map<String, String> recordedResponses = new HashMap<>();
+        if (!fresh.isEmpty()) {
+            try (Connection conn = Database.connect()) {
+                conn.setAutoCommit(false);
+                Map<String, String> keyed = new LinkedHashMap<>();
+                for (Item item : byKey.values()) keyed.put(item.idempotencyKey, item.response);
+                Set<String> recorded = Idempotency.recordAll(conn, merchantId, keyed);
+                if (recorded.size() < keyed.size()) {
+                    // Keys already used by an earlier request replay that request's response
+                    List<String> existing = new ArrayList<>(keyed.keySet());
+                    existing.removeAll(recorded);
+                    Map<String, String> stored = Idempotency.storedAll(conn, merchantId, existing);
+                    for (String key : existing) {
+                        Item item = byKey.get(key);
+                        fresh.remove(item);
+                        item.paymentId = null;
+                        item.response = stored.get(key);
+                        if (item.response == null) item.error(409, "IDEMPOTENCY_CONFLICT", "Idempotency-Key changed state during the batch; retry this item");
+                    }
+                }
+                for (String key : recorded) recordedResponses.put(key, byKey.get(key).response);
+
+                List<String> paymentIds = new ArrayList<>(fresh.size());
+                try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO payments (id, merchant_id, order_id, amount, currency, method, status) VALUES (?, ?::uuid, ?, ?, ?, ?, 'pending')")) {
+                    for (Item item : fresh) {
+                        stmt.setString(1, item.paymentId);
+                        stmt.setString(2, merchantId);
+                        stmt.setString(3, item.orderId);
+                        stmt.setInt(4, item.amount);
+                        stmt.setString(5, item.currency);
+                        stmt.setString(6, item.method);
+                        stmt.addBatch();
+                        paymentIds.add(item.paymentId);
+                    }
+                    if (!paymentIds.isEmpty()) stmt.executeBatch();
+                }
+                if (!paymentIds.isEmpty()) Outbox.addAll(conn, "PROCESS_PAYMENT", merchantId, paymentIds);
+                conn.commit();
+            }
+            Outbox.wake();
+            Idempotency.completeAll(merchantId, recordedResponses);
+        }
+
+        // 4. Per-item results in request order
+        ObjectNode result = mapper.createObjectNode();
+        ArrayNode data = result.putArray("data");
+        int created = 0;
+        int failed = 0;
+        for (Item item : items) {
+            Item source = item.sameKeyAs != null ? item.sameKeyAs : item;
+            ObjectNode entry = data.addObject();
+            entry.put("index", item.index);
+            if (source.errorCode != null) {
+                entry.put("status", source.status);
+                entry.putObject("error").put("code", source.errorCode).put("description", source.errorDescription);
+                failed++;
+            } else {
+                entry.put("status", 201);
+                entry.set("payment", mapper.readTree(source.response));
+                created++;
+            }
+        }
+        result.put("succeeded", created);
+        result.put("failed", failed);
+        return mapper.writeValueAsString(result);
+    }
+
+    private static List<Item> parse(InputStream body) throws Exception {
+        List<Item> items = new ArrayList<>();
+        try (JsonParser parser = mapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) throw new InvalidBatchException("Request body must be a JSON array of payments");
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == null) throw new InvalidBatchException("Unexpected end of request body");
+                if (items.size() == MAX_ITEMS) throw new InvalidBatchException("A batch may contain at most " + MAX_ITEMS + " payments");
+                // Only the current item is materialised; the rest of the body is still unread
+                JsonNode node = mapper.readTree(parser);
+                items.add(validate(items.size(), node));
+            }
+        } catch (JsonProcessingException e) {
+            throw new InvalidBatchException("Malformed JSON: " + e.getOriginalMessage());
+        }
+        if (items.isEmpty()) throw new InvalidBatchException("Batch must contain at least one payment");
+        return items;
+    }
+
+    private static Item validate(int index, JsonNode node) {
+        Item item = new Item(index);
+        if (node == null || !node.isObject()) {
+            item.error(400, "BAD_REQUEST_ERROR", "Item must be a JSON object");
+            return item;
+        }
+        JsonNode amount = node.get("amount");
+        if (amount == null || !amount.canConvertToInt() || !amount.isIntegralNumber() || amount.asInt() <= 0) {
+            item.error(400, "BAD_REQUEST_ERROR", "amount must be a positive integer");
+            return item;
+        }
+        if (!node.hasNonNull("method") || node.get("method").asText().isBlank()) {
+            item.error(400, "BAD_REQUEST_ERROR", "method is required");
+            return item;
+        }
+        if (!node.hasNonNull("order_id") || node.get("order_id").asText().isBlank()) {
+            item.error(400, "BAD_REQUEST_ERROR", "order_id is required");
+            return item;
+        }
+        String currency = node.hasNonNull("currency") ? node.get("currency").asText() : "INR";
+        if (currency.length() != 3) {
+            item.error(400, "BAD_REQUEST_ERROR", "currency must be a 3-letter code");
+            return item;
+        }
+        String key = node.hasNonNull("idempotency_key") ? node.get("idempotency_key").asText() : null;
+        if (key != null && (key.isEmpty() || key.length() > 255)) {
+            item.error(400, "BAD_REQUEST_ERROR", "idempotency_key must be 1-255 characters");
+            return item;
+        }
+        item.amount = amount.asInt();
+        item.method = node.get("method").asText();
+        item.orderId = node.get("order_id").asText();
+        item.currency = currency;
+        item.idempotencyKey = key;
+        return item;
+    }
+
+    // Same shape as the single POST /api/v1/payments response
+    private static String response(Item item) throws Exception {
+        ObjectNode response = mapper.createObjectNode();
+        response.put("id", item.paymentId);
+        response.put("order_id", item.orderId);
+        response.put("amount", item.amount);
+        response.put("currency", item.currency);
+        response.put("method", item.method);
+        response.put("status", "pending");
+        response.put("created_at", Instant.now().toString());
+        return mapper.writeValueAsString(response);
+    }
+}
@@ -0,0 +1,125 @@
+package com.gateway.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Payment status transitions. The worker publishes each transition on one Redis channel;
+ * every API instance holds a single subscription and fans messages out to the requests
+ * waiting on that payment, so watchers cost no database reads while they wait.
+ *
+ * A waiter registers with {@link #await} before reading the current status, so a transition
+ * that lands between the read and the wait is never missed. After a lost subscription all
+ * waiters are woken with null and re-read the status from Postgres.
+ */
+public class PaymentEvents {
+    private static final String CHANNEL = "payment_events";
+    private static final ObjectMapper mapper = new ObjectMapper();
+    public static final long MAX_WAIT_MS = Env.getInt("PAYMENT_EVENTS_MAX_WAIT_MS", 60_000);
+    private static final Semaphore slots = new Semaphore(Env.getInt("PAYMENT_EVENTS_MAX_WAITERS", 100));
+    private static final ConcurrentHashMap<String, Set<CompletableFuture<String>>> waiters = new ConcurrentHashMap<>();
+
+    /** Called by the worker after the status change is committed. */
+    public static void publish(String paymentId, String merchantId, String status) {
+        try (Jedis jedis = Redis.get()) {
+            ObjectNode event = mapper.createObjectNode();
+            event.put("payment_id", paymentId);
+            event.put("merchant_id", merchantId);
+            event.put("status", status);
+            event.put("updated_at", Instant.now().toString());
+            jedis.publish(CHANNEL, mapper.writeValueAsString(event));
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    public static void startListener() {
+        Redis.subscribe("payment-events-listener", PaymentEvents::wakeAll, new JedisPubSub() {
+            @Override
+            public void onMessage(String channel, String message) {
+                try {
+                    String paymentId = mapper.readTree(message).path("payment_id").asText();
+                    Set<CompletableFuture<String>> waiting = waiters.remove(paymentId);
+                    if (waiting != null) waiting.forEach(f -> f.complete(message));
+                } catch (Exception e) { e.printStackTrace(); }
+            }
+        }, CHANNEL);
+    }
+
+    /** Registers interest in the next transition of a payment. Always pair with {@link #cancel}. */
+    public static CompletableFuture<String> await(String paymentId) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        // compute() keeps the add atomic with onMessage's remove, so no future lands in a detached set
+        waiters.compute(paymentId, (k, set) -> {
+            if (set == null) set = ConcurrentHashMap.newKeySet();
+            set.add(future);
+            return set;
+        });
+        return future;
+    }
+
+    public static void cancel(String paymentId, CompletableFuture<String> future) {
+        waiters.computeIfPresent(paymentId, (k, set) -> {
+            set.remove(future);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /**
+     * Each open stream or long-poll holds a Jetty thread, so they are capped below the
+     * server's thread pool; callers beyond the cap get a 503 and fall back to polling.
+     */
+    public static boolean tryEnter() {
+        return slots.tryAcquire();
+    }
+
+    public static void exit() {
+        slots.release();
+    }
+
+    /** Current status of a merchant's payment in the published event format, or null if not found. */
+    public static String current(String paymentId, String merchantId) throws Exception {
+        try (Connection conn = Database.connect();
+             PreparedStatement stmt = conn.prepareStatement("SELECT status, updated_at FROM payments WHERE id = ? AND merchant_id = ?::uuid")) {
+            stmt.setString(1, paymentId);
+            stmt.setString(2, merchantId);
+            ResultSet rs = stmt.executeQuery();
+            if (!rs.next()) return null;
+            ObjectNode event = mapper.createObjectNode();
+            event.put("payment_id", paymentId);
+            event.put("merchant_id", merchantId);
+            event.put("status", rs.getString("status"));
+            Timestamp updatedAt = rs.getTimestamp("updated_at");
+            event.put("updated_at", updatedAt != null ? updatedAt.toInstant().toString() : null);
+            return mapper.writeValueAsString(event);
+        }
+    }
+
+    public static String status(String event) throws Exception {
+        return mapper.readTree(event).path("status").asText();
+    }
+
+    public static boolean terminal(String status) {
+        return "success".equals(status) || "failed".equals(status);
+    }
+
+    public static int waiting() {
+        return waiters.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private static void wakeAll() {
+        for (String paymentId : waiters.keySet()) {
+            Set<CompletableFuture<String>> waiting = waiters.remove(paymentId);
+            if (waiting != null) waiting.forEach(f -> f.complete(null));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.gateway.services;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Read-through cache for payment and refund lookups: a bounded in-process LRU in front of a
+ * shared Redis copy, in front of Postgres. Values are the JSON responses; misses (404s) are
+ * not cached.
+ *
+ * Writers call {@link #invalidate} after committing a change. That bumps the key's version in
+ * Redis, deletes the shared copy and broadcasts the key on cache_invalidations so every API
+ * instance drops its local copy. A reader only stores a row it loaded if the version is still
+ * the one it saw before going to Postgres, so a load that raced a change never puts the old
+ * row back. Concurrent misses for one key on an instance share a single load.
+ */
+public class ReadCache {
+    private static final String CHANNEL = "cache_invalidations";
+    private static final int MAX_ENTRIES = Env.getInt("READ_CACHE_SIZE", 10_000);
+    private static final long LOCAL_TTL_MS = Env.getInt("READ_CACHE_LOCAL_TTL_MS", 60_000);
+    private static final int TTL_SECONDS = Env.getInt("READ_CACHE_TTL_SECONDS", 600);
+    private static final String[] TIER = {"tier"};
+
+    // KEYS: version, value; ARGV: version seen before loading, value, ttl
+    private static final String STORE_SCRIPT =
+            "if (redis.call('GET', KEYS[1]) or '0') ~= ARGV[1] then return 0 end " +
+            "redis.call('SET', KEYS[2], ARGV[2], 'EX', ARGV[3]) return 1";
+    // KEYS: version, value; ARGV: version ttl
+    private static final String INVALIDATE_SCRIPT =
+            "redis.call('INCR', KEYS[1]) redis.call('EXPIRE', KEYS[1], ARGV[1]) return redis.call('DEL', KEYS[2])";
+
+    private static final Segment[] segments = new Segment[16];
+    // Bumped per key stripe on every invalidation; a local fill is skipped if its stripe moved meanwhile
+    private static final AtomicLongArray epochs = new AtomicLongArray(1024);
+    private static final ConcurrentHashMap<String, CompletableFuture<String>> loads = new ConcurrentHashMap<>();
+
+    static {
+        for (int i = 0; i < segments.length; i++) segments[i] = new Segment(Math.max(1, MAX_ENTRIES / segments.length));
+    }
+
+    /** Produces the value from Postgres; null means not found. */
+    public interface Loader {
+        String load() throws Exception;
+    }
+
+    public static String payment(String merchantId, String paymentId) {
+        return "payment:" + merchantId + ":" + paymentId;
+    }
+
+    public static String refund(String merchantId, String refundId) {
+        return "refund:" + merchantId + ":" + refundId;
+    }
+
+    /** Subscribes to invalidation broadcasts; call once at startup on each API instance. */
+    public static void startInvalidationListener() {
+        Redis.subscribe("cache-invalidations", ReadCache::clearLocal, new JedisPubSub() {
+            @Override
+            public void onMessage(String channel, String key) {
+                dropLocal(key);
+            }
+        }, CHANNEL);
+    }
+
+    public static String get(String key, Loader loader) throws Exception {
+        // 1. Local tier
+        String value = segment(key).get(key, System.currentTimeMillis());
+        if (value != null) {
+            Metrics.counter("read_cache_requests_total", "Cached payment/refund reads by the tier that answered", TIER, "local").inc();
+            return value;
+        }
+
+        // 2. One load per key on this instance; concurrent misses wait for it
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> leader = loads.putIfAbsent(key, mine);
+        if (leader != null) {
+            try {
+                return leader.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        try {
+            String loaded = load(key, loader);
+            mine.complete(loaded);
+            return loaded;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, mine);
+        }
+    }
+
+    /** Call after the change is committed. */
+    public static void invalidate(String... keys) {
+        try (Jedis jedis = Redis.get()) {
+            Pipeline p = jedis.pipelined();
+            for (String key : keys) {
+                p.eval(INVALIDATE_SCRIPT, List.of(versionKey(key), valueKey(key)), List.of(String.valueOf(TTL_SECONDS * 2)));
+                p.publish(CHANNEL, key);
+            }
+            p.sync();
+        } catch (Exception e) {
+            // Readers fall back to the TTLs
+            e.printStackTrace();
+        }
+        for (String key : keys) dropLocal(key);
+    }
+
+    private static String load(String key, Loader loader) throws Exception {
+        long epoch = epochs.get(stripe(key));
+        String version;
+        // 1. Shared tier
+        try (Jedis jedis = Redis.get()) {
+            List<String> values = jedis.mget(valueKey(key), versionKey(key));
+            if (values.get(0) != null) {
+                Metrics.counter("read_cache_requests_total", "Cached payment/refund reads by the tier that answered", TIER, "redis").inc();
+                fillLocal(key, values.get(0), epoch);
+                return values.get(0);
+            }
+            version = values.get(1) != null ? values.get(1) : "0";
+        } catch (JedisException e) {
+            // Redis unavailable: invalidations can't reach us either, so serve uncached
+            return loader.load();
+        }
+
+        // 2. Postgres, stored only if nothing changed while we were reading
+        Metrics.counter("read_cache_requests_total", "Cached payment/refund reads by the tier that answered", TIER, "db").inc();
+        String value = loader.load();
+        if (value == null) return null;
+        try (Jedis jedis = Redis.get()) {
+            Object stored = jedis.eval(STORE_SCRIPT, List.of(versionKey(key), valueKey(key)), List.of(version, value, String.valueOf(TTL_SECONDS)));
+            if (Long.valueOf(1).equals(stored)) fillLocal(key, value, epoch);
+        } catch (JedisException e) { e.printStackTrace(); }
+        return value;
+    }
+
+    private static void fillLocal(String key, String value, long epoch) {
+        segment(key).putIf(key, value, System.currentTimeMillis() + LOCAL_TTL_MS, () -> epochs.get(stripe(key)) == epoch);
+    }
+
+    private static void dropLocal(String key) {
+        epochs.incrementAndGet(stripe(key));
+        segment(key).remove(key);
+    }
+
+    private static void clearLocal() {
+        for (int i = 0; i < epochs.length(); i++) epochs.incrementAndGet(i);
+        for (Segment s : segments) s.clear();
+    }
+
+    private static Segment segment(String key) {
+        return segments[Math.floorMod(key.hashCode(), segments.length)];
+    }
+
+    private static int stripe(String key) {
+        return Math.floorMod(key.hashCode() * 0x9E3779B9, epochs.length());
+    }
+
+    private static String valueKey(String key) {
+        return "cache:" + key;
+    }
+
+    private static String versionKey(String key) {
+        return "cachever:" + key;
+    }
+
+    /** One lock-striped slice of the local tier, evicting its least recently used entry. */
+    private static final class Segment {
+        private final LinkedHashMap<String, Entry> map;
+
+        Segment(int capacity) {
+            this.map = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized String get(String key, long now) {
+            Entry entry = map.get(key);
+            if (entry == null) return null;
+            if (entry.expiresAt <= now) {
+                map.remove(key);
+                return null;
+            }
+            return entry.value;
+        }
+
+        synchronized void putIf(String key, String value, long expiresAt, BooleanSupplier unchanged) {
+            if (unchanged.getAsBoolean()) map.put(key, new Entry(value, expiresAt));
+        }
+
+        synchronized void remove(String key) {
+            map.remove(key);
+        }
+
+        synchronized void clear() {
+            map.clear();
+        }
+    }
+
+    private static final class Entry {
+        final String value;
+        final long expiresAt;
+        Entry(String value, long expiresAt) { this.value = value; this.expiresAt = expiresAt; }
+    }
+}
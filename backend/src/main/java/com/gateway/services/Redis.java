@@ -0,0 +1,44 @@
+package com.gateway.services;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+
+/** Shared Redis connection pool for the queue, caches and pub/sub channels. */
+public class Redis {
+    private static final String REDIS_HOST = System.getenv("REDIS_URL") != null ? "redis_gateway" : "localhost";
+    private static final JedisPool pool = new JedisPool(poolConfig(), REDIS_HOST, 6379);
+
+    private static JedisPoolConfig poolConfig() {
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(Env.getInt("REDIS_POOL_MAX", 32));
+        config.setMaxIdle(Env.getInt("REDIS_POOL_MAX", 32));
+        return config;
+    }
+
+    public static Jedis get() {
+        return pool.getResource();
+    }
+
+    /**
+     * Runs a subscription on a dedicated daemon thread, re-subscribing after connection
+     * loss. onReconnect runs before every (re)subscribe so callers can drop state that
+     * may have missed messages while disconnected.
+     */
+    public static void subscribe(String name, Runnable onReconnect, JedisPubSub listener, String... channels) {
+        Thread thread = new Thread(() -> {
+            while (true) {
+                try (Jedis jedis = pool.getResource()) {
+                    onReconnect.run();
+                    jedis.subscribe(listener, channels);
+                } catch (Exception e) {
+                    System.out.println(name + ": subscription lost, retrying: " + e.getMessage());
+                }
+                try { Thread.sleep(1000); } catch (InterruptedException e) { return; }
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,74 @@
+package com.gateway.services;
+
+import spark.Request;
+import spark.Response;
+import spark.Spark;
+import spark.route.HttpMethod;
+import spark.routematch.RouteMatch;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-route request metrics for the Spark API. Requests are labelled with the route
+ * template they matched (e.g. /api/v1/payments/:id/capture) rather than the raw path, so
+ * ids never become label values; paths that match no route are labelled "unmatched".
+ */
+public class RouteMetrics {
+    private static final String[] LABELS = {"method", "route", "status"};
+    private static volatile List<String[]> templates;
+
+    /** Snapshots the registered routes. Call once every route has been defined. */
+    public static void init() {
+        templates = load();
+    }
+
+    /** Before-filter: stamps the request start time. */
+    public static void start(Request req) {
+        req.attribute("metrics.start", System.nanoTime());
+    }
+
+    /** After-after filter: runs for every response, including halts and exceptions. */
+    public static void record(Request req, Response res) {
+        Long start = req.attribute("metrics.start");
+        if (start == null) return;
+        String method = req.requestMethod();
+        String status = String.valueOf(res.status());
+        Metrics.histogram("http_request_duration_seconds", "API request latency by route and status", LABELS, method, route(method, req.pathInfo()), status)
+                .observeSince(start);
+    }
+
+    /** The route template a request matches, or "unmatched". */
+    static String route(String method, String path) {
+        List<String[]> routes = templates;
+        if (routes == null) routes = templates = load();
+        String[] segments = path.split("/");
+        for (String[] t : routes) {
+            if (!t[0].equalsIgnoreCase(method)) continue;
+            boolean wildcard = t[t.length - 1].equals("*");
+            if (wildcard ? segments.length < t.length - 3 : segments.length != t.length - 2) continue;
+            boolean match = true;
+            for (int i = 0; i < t.length - (wildcard ? 3 : 2) && match; i++) {
+                String part = t[i + 2];
+                match = part.startsWith(":") || part.equals(segments[i]);
+            }
+            if (match) return t[1];
+        }
+        return "unmatched";
+    }
+
+    // Each entry is {method, template, segment0, segment1, ...}
+    private static List<String[]> load() {
+        List<String[]> routes = new ArrayList<>();
+        for (RouteMatch m : Spark.routes()) {
+            HttpMethod httpMethod = m.getHttpMethod();
+            if (httpMethod == HttpMethod.before || httpMethod == HttpMethod.after || httpMethod == HttpMethod.afterafter) continue;
+            String[] segments = m.getMatchUri().split("/");
+            String[] entry = new String[segments.length + 2];
+            entry[0] = httpMethod.name();
+            entry[1] = m.getMatchUri();
+            System.arraycopy(segments, 0, entry, 2, segments.length);
+            routes.add(entry);
+        }
+        return routes;
+    }
+}
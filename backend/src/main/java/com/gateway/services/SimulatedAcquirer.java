@@ -0,0 +1,220 @@
+package com.gateway.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Acquirer stand-in for local runs and capacity tests. With no configuration it behaves like
+ * the original hardcoded simulation (payments take 5-10s, 95% succeed, 90% for UPI; refunds
+ * take 3-5s and always succeed).
+ *
+ * Every draw comes from a generator seeded with ACQUIRER_SEED mixed with the payment or
+ * refund id, so a given seed and id always get the same latency and outcome regardless of
+ * worker concurrency, and a redelivered job repeats its first result. The first call only
+ * draws the latency and asks to be resumed when the response is due; the resumed call
+ * repeats the draws to find the outcome, so no per-payment state is kept in memory. Error
+ * bursts are keyed to wall-clock time so every worker sees the same outage windows.
+ *
+ * Latency specs are "fixed:MS", "uniform:MIN:MAX", "normal:MEAN:SD", "exponential:MEAN" or
+ * "lognormal:MEDIAN:P99". Every ACQUIRER_* setting is checked when the simulator is created and
+ * a malformed or out-of-range value throws, so a capacity test never runs on a silent default.
+ */
+public class SimulatedAcquirer implements Acquirer {
+    private final long seed;
+    private final Latency paymentLatency;
+    private final Latency refundLatency;
+    private final double defaultSuccessRate;
+    private final double refundFailureRate;
+    private final long timeoutMs;
+    private final double timeoutRate;
+    private final long burstEveryMs;
+    private final long burstLengthMs;
+    private final double burstFailureRate;
+    private final ConcurrentHashMap<String, Double> successRates = new ConcurrentHashMap<>();
+
+    public SimulatedAcquirer() {
+        String seedValue = Env.get("ACQUIRER_SEED", null);
+        try {
+            this.seed = seedValue != null ? Long.parseLong(seedValue.trim()) : ThreadLocalRandom.current().nextLong();
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid ACQUIRER_SEED: " + seedValue);
+        }
+        this.paymentLatency = latency("ACQUIRER_LATENCY_MS", "uniform:5000:10000");
+        this.refundLatency = latency("ACQUIRER_REFUND_LATENCY_MS", "uniform:3000:5000");
+        this.defaultSuccessRate = percent("ACQUIRER_SUCCESS_PERCENT", 95);
+        this.refundFailureRate = percent("REFUND_FAILURE_PERCENT", 0);
+        String timeout = Env.get("ACQUIRER_TIMEOUT_MS", "30000");
+        try {
+            this.timeoutMs = Long.parseLong(timeout.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid ACQUIRER_TIMEOUT_MS: " + timeout);
+        }
+        if (timeoutMs <= 0) throw new IllegalArgumentException("Invalid ACQUIRER_TIMEOUT_MS: " + timeout);
+        this.timeoutRate = percent("ACQUIRER_TIMEOUT_PERCENT", 0);
+        // Per-method overrides are read up front so a bad one fails here, not on that method's first payment
+        String prefix = "ACQUIRER_SUCCESS_PERCENT_";
+        for (String name : System.getenv().keySet()) {
+            if (name.startsWith(prefix) && name.length() > prefix.length()) successRates.put(name.substring(prefix.length()), percent(name, 0));
+        }
+
+        // "EVERY_MS:LENGTH_MS[:FAILURE_PERCENT]", e.g. 60000:5000 fails everything for 5s each minute
+        String burst = Env.get("ACQUIRER_ERROR_BURST", null);
+        if (burst != null) {
+            String[] parts = burst.split(":");
+            try {
+                if (parts.length < 2 || parts.length > 3) throw new IllegalArgumentException();
+                this.burstEveryMs = Long.parseLong(parts[0].trim());
+                this.burstLengthMs = Long.parseLong(parts[1].trim());
+                this.burstFailureRate = parts.length > 2 ? Double.parseDouble(parts[2].trim()) / 100 : 1.0;
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid ACQUIRER_ERROR_BURST: " + burst);
+            }
+            if (burstEveryMs <= 0 || burstLengthMs < 0 || burstLengthMs > burstEveryMs || !(burstFailureRate >= 0 && burstFailureRate <= 1)) {
+                throw new IllegalArgumentException("Invalid ACQUIRER_ERROR_BURST: " + burst);
+            }
+        } else {
+            this.burstEveryMs = 0;
+            this.burstLengthMs = 0;
+            this.burstFailureRate = 0;
+        }
+        System.out.println("Acquirer: simulated, seed " + seed);
+    }
+
+    @Override
+    public Result authorize(String paymentId, String method, int amount, String state) {
+        return respond(random(paymentId), paymentLatency, successRate(method), "Payment declined by issuer", state);
+    }
+
+    @Override
+    public Result refund(String refundId, int amount, String state) {
+        return respond(random(refundId), refundLatency, 1 - refundFailureRate, "Refund rejected by acquirer", state);
+    }
+
+    // ACQUIRER_SUCCESS_PERCENT_<METHOD> overrides the default for one method
+    private double successRate(String method) {
+        String key = String.valueOf(method).toUpperCase(Locale.ROOT);
+        return successRates.computeIfAbsent(key, k -> percent("ACQUIRER_SUCCESS_PERCENT_" + k, "UPI".equals(k) ? 90 : defaultSuccessRate * 100));
+    }
+
+    private Result respond(SplittableRandom rng, Latency latency, double successRate, String declined, String state) {
+        // Draw everything up front so the sequence per id never depends on timing
+        long delayMs = latency.sample(rng);
+        boolean hang = rng.nextDouble() < timeoutRate;
+        boolean approved = rng.nextDouble() < successRate;
+        boolean burstFailure = rng.nextDouble() < burstFailureRate;
+        boolean timedOut = hang || delayMs >= timeoutMs;
+
+        // 1. Submission: the response (or the timeout) is due after the simulated latency
+        if (state == null) {
+            return Result.pending(System.currentTimeMillis() + (timedOut ? timeoutMs : delayMs), "submitted");
+        }
+
+        // 2. Timeouts: the gateway gave up waiting
+        if (timedOut) {
+            return Result.declined("GATEWAY_TIMEOUT", "Acquirer did not respond within " + timeoutMs + "ms");
+        }
+
+        // 3. Error bursts: an outage window in which most calls fail regardless of the card
+        if (burstFailure && burstEveryMs > 0 && System.currentTimeMillis() % burstEveryMs < burstLengthMs) {
+            return Result.declined("ACQUIRER_UNAVAILABLE", "Acquirer temporarily unavailable");
+        }
+
+        // 4. Normal outcome
+        return approved ? Result.ok() : Result.declined("DECLINED", declined);
+    }
+
+    private SplittableRandom random(String id) {
+        // FNV-1a over the id, mixed into the seed
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : id.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return new SplittableRandom(seed ^ hash);
+    }
+
+    private static double percent(String name, double fallback) {
+        String value = Env.get(name, null);
+        if (value == null) return fallback / 100;
+        double percent;
+        try {
+            percent = Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+        if (!(percent >= 0 && percent <= 100)) throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        return percent / 100;
+    }
+
+    private static Latency latency(String name, String fallback) {
+        String spec = Env.get(name, fallback);
+        try {
+            return Latency.parse(spec);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + spec, e);
+        }
+    }
+
+    /** A latency distribution in milliseconds. */
+    static final class Latency {
+        private final String kind;
+        private final double a;
+        private final double b;
+
+        private Latency(String kind, double a, double b) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+        }
+
+        static Latency parse(String spec) {
+            String[] parts = spec.trim().split(":");
+            String kind = parts[0].toLowerCase(Locale.ROOT);
+            double a;
+            double b;
+            try {
+                a = parts.length > 1 ? Double.parseDouble(parts[1]) : 0;
+                b = parts.length > 2 ? Double.parseDouble(parts[2]) : 0;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid latency spec: " + spec);
+            }
+            if (!Double.isFinite(a) || !Double.isFinite(b)) throw new IllegalArgumentException("Invalid latency spec: " + spec);
+            switch (kind) {
+                case "fixed":
+                    if (parts.length != 2 || a < 0) break;
+                    return new Latency(kind, a, 0);
+                case "exponential":
+                    if (parts.length != 2 || a <= 0) break;
+                    return new Latency(kind, a, 0);
+                case "uniform":
+                    if (parts.length != 3 || a < 0 || b < a) break;
+                    return new Latency(kind, a, b);
+                case "normal":
+                    if (parts.length != 3 || a < 0 || b < 0) break;
+                    return new Latency(kind, a, b);
+                case "lognormal":
+                    if (parts.length != 3 || a <= 0 || b < a) break;
+                    // b is the p99; z(0.99) = 2.326
+                    return new Latency(kind, Math.log(a), Math.log(b / a) / 2.326);
+                default:
+                    break;
+            }
+            throw new IllegalArgumentException("Invalid latency spec: " + spec);
+        }
+
+        long sample(SplittableRandom rng) {
+            double ms;
+            switch (kind) {
+                case "fixed": ms = a; break;
+                case "uniform": ms = a + rng.nextDouble() * (b - a); break;
+                case "normal": ms = a + rng.nextGaussian() * b; break;
+                case "exponential": ms = -a * Math.log(1 - rng.nextDouble()); break;
+                default: ms = Math.exp(a + rng.nextGaussian() * b); break;
+            }
+            return Math.max(0, Math.round(ms));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.gateway.services;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Time-ordered UUIDs (version 7): the top 48 bits are the creation time in epoch ms. Used for
+ * webhook_logs ids, so every attempt can recover the row's partition key (created_at) from
+ * the id alone.
+ */
+public class TimeUuid {
+    public static String random() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long msb = (System.currentTimeMillis() << 16) | 0x7000L | (random.nextLong() & 0x0FFFL);
+        long lsb = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb).toString();
+    }
+
+    /** Creation time of a version 7 id in epoch ms, or -1 for any other id. */
+    public static long millis(String id) {
+        try {
+            UUID uuid = UUID.fromString(id);
+            return uuid.version() == 7 ? uuid.getMostSignificantBits() >>> 16 : -1;
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.gateway.services;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Keyset-paginated listing of a merchant's webhook_logs, newest first. Pages are ordered by
+ * (created_at, id) and the cursor is the position of the last row returned, so every page
+ * is an index range scan no matter how deep it is. Rows are streamed straight from the
+ * JDBC cursor into the response, keeping memory flat for large pages.
+ */
+public class WebhookLogs {
+    public static final int DEFAULT_LIMIT = 20;
+    public static final int MAX_LIMIT = Env.getInt("WEBHOOK_LOGS_MAX_PAGE", 1000);
+    private static final int FETCH_SIZE = 500;
+    // Closing a generator only flushes; the servlet stream belongs to the container
+    private static final JsonFactory json = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    /** Rejected request parameters; the message is safe to return to the caller. */
+    public static class InvalidQueryException extends Exception {
+        private static final long serialVersionUID = 1L;
+        public InvalidQueryException(String message) { super(message); }
+    }
+
+    public static final class Query {
+        String merchantId;
+        String status;
+        String event;
+        Timestamp from;
+        Timestamp to;
+        Timestamp afterCreatedAt;
+        String afterId;
+        int limit = DEFAULT_LIMIT;
+
+        public Query(String merchantId) { this.merchantId = merchantId; }
+
+        public Query status(String status) { this.status = blank(status); return this; }
+
+        public Query event(String event) { this.event = blank(event); return this; }
+
+        public Query from(String iso) throws InvalidQueryException { this.from = instant("from", iso); return this; }
+
+        public Query to(String iso) throws InvalidQueryException { this.to = instant("to", iso); return this; }
+
+        public Query limit(String value) throws InvalidQueryException {
+            if (blank(value) == null) return this;
+            try {
+                limit = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new InvalidQueryException("limit must be an integer");
+            }
+            if (limit < 1 || limit > MAX_LIMIT) throw new InvalidQueryException("limit must be between 1 and " + MAX_LIMIT);
+            return this;
+        }
+
+        public Query cursor(String cursor) throws InvalidQueryException {
+            if (blank(cursor) == null) return this;
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", 2);
+                afterCreatedAt = Timestamp.from(Instant.parse(parts[0]));
+                afterId = java.util.UUID.fromString(parts[1]).toString();
+            } catch (Exception e) {
+                throw new InvalidQueryException("Invalid cursor");
+            }
+            return this;
+        }
+    }
+
+    /** Writes {"data":[...],"next_cursor":...} for one page. */
+    public static void stream(Query q, OutputStream out) throws Exception {
+        // 1. Build the filter; each optional predicate lines up with a composite index
+        StringBuilder sql = new StringBuilder(
+                "SELECT id, event, status, attempts, response_code, last_attempt_at, next_retry_at, created_at FROM webhook_logs WHERE merchant_id = ?::uuid");
+        List<Object> params = new ArrayList<>();
+        params.add(q.merchantId);
+        if (q.status != null) { sql.append(" AND status = ?"); params.add(q.status); }
+        if (q.event != null) { sql.append(" AND event = ?"); params.add(q.event); }
+        if (q.from != null) { sql.append(" AND created_at >= ?"); params.add(q.from); }
+        if (q.to != null) { sql.append(" AND created_at < ?"); params.add(q.to); }
+        if (q.afterCreatedAt != null) {
+            sql.append(" AND (created_at, id) < (?, ?::uuid)");
+            params.add(q.afterCreatedAt);
+            params.add(q.afterId);
+        }
+        // One extra row tells us whether another page exists
+        sql.append(" ORDER BY created_at DESC, id DESC LIMIT ?");
+        params.add(q.limit + 1);
+
+        try (Connection conn = Database.connect(); PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            // 2. The driver only streams with a fetch size inside a transaction
+            conn.setAutoCommit(false);
+            stmt.setFetchSize(FETCH_SIZE);
+            for (int i = 0; i < params.size(); i++) {
+                Object p = params.get(i);
+                if (p instanceof Timestamp) stmt.setTimestamp(i + 1, (Timestamp) p);
+                else if (p instanceof Integer) stmt.setInt(i + 1, (Integer) p);
+                else stmt.setString(i + 1, (String) p);
+            }
+
+            // 3. Stream rows into the response as they arrive
+            try (ResultSet rs = stmt.executeQuery(); JsonGenerator gen = json.createGenerator(out, JsonEncoding.UTF8)) {
+                gen.writeStartObject();
+                gen.writeArrayFieldStart("data");
+                int written = 0;
+                String nextCursor = null;
+                Timestamp lastCreatedAt = null;
+                String lastId = null;
+                while (rs.next()) {
+                    if (written == q.limit) {
+                        nextCursor = cursor(lastCreatedAt, lastId);
+                        break;
+                    }
+                    lastCreatedAt = rs.getTimestamp("created_at");
+                    lastId = rs.getString("id");
+                    gen.writeStartObject();
+                    gen.writeStringField("id", lastId);
+                    gen.writeStringField("event", rs.getString("event"));
+                    gen.writeStringField("status", rs.getString("status"));
+                    gen.writeNumberField("attempts", rs.getInt("attempts"));
+                    int code = rs.getInt("response_code");
+                    if (rs.wasNull()) gen.writeNullField("response_code");
+                    else gen.writeNumberField("response_code", code);
+                    writeTimestamp(gen, "last_attempt_at", rs.getTimestamp("last_attempt_at"));
+                    writeTimestamp(gen, "next_retry_at", rs.getTimestamp("next_retry_at"));
+                    writeTimestamp(gen, "created_at", lastCreatedAt);
+                    gen.writeEndObject();
+                    written++;
+                }
+                gen.writeEndArray();
+                if (nextCursor == null) gen.writeNullField("next_cursor");
+                else gen.writeStringField("next_cursor", nextCursor);
+                gen.writeEndObject();
+            }
+            conn.commit();
+        }
+    }
+
+    private static String cursor(Timestamp createdAt, String id) {
+        String raw = createdAt.toInstant() + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeTimestamp(JsonGenerator gen, String field, Timestamp value) throws Exception {
+        if (value == null) gen.writeNullField(field);
+        else gen.writeStringField(field, value.toInstant().toString());
+    }
+
+    private static Timestamp instant(String name, String iso) throws InvalidQueryException {
+        if (blank(iso) == null) return null;
+        try {
+            return Timestamp.from(Instant.parse(iso));
+        } catch (Exception e) {
+            throw new InvalidQueryException(name + " must be an ISO-8601 instant, e.g. 2024-01-31T00:00:00Z");
+        }
+    }
+
+    private static String blank(String value) {
+        return value == null || value.isBlank() ? null : value;
+    }
+}
@@ -0,0 +1,285 @@
+package com.gateway.tools;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ToLongFunction;
+
+/**
+ * Open-loop load generator for the payments API.
+ *
+ * Payments are created on a fixed schedule (request i is due at start + i/rps) whether or not
+ * earlier requests have completed, and every latency is measured from the request's intended
+ * send time rather than the moment it actually went out. A stalled server therefore shows up
+ * as latency instead of silently lowering the offered load (coordinated omission).
+ *
+ * For each payment it reports the create latency, the latency to its final status (watched
+ * through the long-poll events endpoint for a sample of payments) and, when the merchant's
+ * webhook URL points at the built-in receiver, the webhook's arrival time and its lag behind
+ * the status change.
+ *
+ * Usage: java -cp payment-gateway-1.0.jar com.gateway.tools.LoadGenerator --rps 100 --duration 60
+ */
+public class LoadGenerator {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final class Payment {
+        final long intendedNanos;
+        final boolean watched;
+        volatile long createdNanos;
+        volatile long finalNanos;
+        volatile long finalAtMillis;
+        volatile String status;
+        volatile long webhookNanos;
+        volatile long webhookAtMillis;
+        Payment(long intendedNanos, boolean watched) {
+            this.intendedNanos = intendedNanos;
+            this.watched = watched;
+        }
+    }
+
+    private static String api;
+    private static String apiKey;
+    private static HttpClient client;
+    private static final ConcurrentHashMap<String, Payment> payments = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, AtomicLong> responses = new ConcurrentHashMap<>();
+    private static final List<Long> createLatencies = new ArrayList<>();
+    private static final AtomicLong errors = new AtomicLong();
+    private static final AtomicLong unwatched = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = options(args);
+        api = opts.getOrDefault("api", "http://localhost:8000").replaceAll("/+$", "");
+        apiKey = opts.getOrDefault("key", "key_test_abc123");
+        double rps = Double.parseDouble(opts.getOrDefault("rps", "50"));
+        int duration = Integer.parseInt(opts.getOrDefault("duration", "60"));
+        int drain = Integer.parseInt(opts.getOrDefault("drain", "60"));
+        double watch = Double.parseDouble(opts.getOrDefault("watch", "10")) / 100;
+        int webhookPort = Integer.parseInt(opts.getOrDefault("webhook-port", "4000"));
+        String[] methods = opts.getOrDefault("methods", "card,upi").split(",");
+        SplittableRandom rng = new SplittableRandom(Long.parseLong(opts.getOrDefault("seed", "1")));
+
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newCachedThreadPool())
+                .build();
+        if (webhookPort > 0) startReceiver(webhookPort);
+
+        // 1. Offer load on a fixed schedule, never waiting for responses
+        long total = (long) (rps * duration);
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        System.out.printf("Sending %d payments at %.1f/s to %s%n", total, rps, api);
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            long intended = start + (long) (i * 1e9 / rps);
+            long wait = intended - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            ObjectNode body = mapper.createObjectNode();
+            body.put("amount", 100 + rng.nextInt(100_000));
+            body.put("currency", "INR");
+            body.put("method", methods[(int) (i % methods.length)].trim());
+            body.put("order_id", "load_" + runId + "_" + i);
+            create(intended, mapper.writeValueAsString(body), rng.nextDouble() < watch);
+        }
+        long sendEnd = System.nanoTime();
+
+        // 2. Drain: wait for outstanding final statuses and webhooks
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drain);
+        while (System.nanoTime() < drainDeadline && !settled(webhookPort > 0, total)) Thread.sleep(200);
+
+        report(start, sendEnd, total, webhookPort > 0);
+        System.exit(0);
+    }
+
+    private static void create(long intended, String body, boolean watch) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(api + "/api/v1/payments"))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .header("X-Api-Key", apiKey)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((res, err) -> {
+            long now = System.nanoTime();
+            synchronized (createLatencies) {
+                createLatencies.add(now - intended);
+            }
+            if (err != null) {
+                errors.incrementAndGet();
+                return;
+            }
+            responses.computeIfAbsent(res.statusCode(), k -> new AtomicLong()).incrementAndGet();
+            if (res.statusCode() != 201) return;
+            try {
+                String id = mapper.readTree(res.body()).path("id").asText();
+                Payment payment = new Payment(intended, watch);
+                payment.createdNanos = now;
+                // A fast webhook can arrive before this response is processed
+                Payment early = payments.putIfAbsent(id, payment);
+                if (early != null) {
+                    payment.webhookNanos = early.webhookNanos;
+                    payment.webhookAtMillis = early.webhookAtMillis;
+                    payments.put(id, payment);
+                }
+                if (watch) watch(id, payment);
+            } catch (Exception e) { errors.incrementAndGet(); }
+        });
+    }
+
+    /** Long-polls the events endpoint until the payment reaches a final status. */
+    private static void watch(String id, Payment payment) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(api + "/api/v1/payments/" + id + "/events?timeout=30"))
+                .timeout(Duration.ofSeconds(40))
+                .header("X-Api-Key", apiKey)
+                .GET()
+                .build();
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((res, err) -> {
+            long now = System.nanoTime();
+            if (err != null) {
+                unwatched.incrementAndGet();
+                return;
+            }
+            if (res.statusCode() == 503) {
+                // Watcher slots are capped server-side; back off and try again
+                CompletableFuture.delayedExecutor(1, TimeUnit.SECONDS).execute(() -> watch(id, payment));
+                return;
+            }
+            try {
+                JsonNode event = mapper.readTree(res.body());
+                String status = event.path("status").asText();
+                if (res.statusCode() != 200) {
+                    unwatched.incrementAndGet();
+                } else if ("success".equals(status) || "failed".equals(status)) {
+                    payment.finalNanos = now;
+                    payment.finalAtMillis = Instant.parse(event.path("updated_at").asText()).toEpochMilli();
+                    payment.status = status;
+                } else {
+                    watch(id, payment);
+                }
+            } catch (Exception e) { unwatched.incrementAndGet(); }
+        });
+    }
+
+    /** Accepts single and batched webhooks on any path and records when each payment's arrived. */
+    private static void startReceiver(int port) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.createContext("/", exchange -> {
+            long now = System.nanoTime();
+            long nowMillis = System.currentTimeMillis();
+            try (InputStream in = exchange.getRequestBody()) {
+                JsonNode body = mapper.readTree(in);
+                for (JsonNode event : body.isArray() ? body : List.of(body)) {
+                    if (!event.path("event").asText().startsWith("payment.")) continue;
+                    String id = event.path("data").path("payment_id").asText();
+                    Payment payment = payments.computeIfAbsent(id, k -> new Payment(0, false));
+                    if (payment.webhookNanos == 0) {
+                        payment.webhookNanos = now;
+                        payment.webhookAtMillis = nowMillis;
+                    }
+                }
+            } catch (Exception e) { e.printStackTrace(); }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        System.out.println("Webhook receiver listening on port " + port);
+    }
+
+    private static boolean settled(boolean webhooks, long total) {
+        long answered;
+        synchronized (createLatencies) {
+            answered = createLatencies.size();
+        }
+        if (answered < total) return false;
+        for (Payment p : payments.values()) {
+            if (p.intendedNanos == 0) continue;
+            if (p.watched && p.finalNanos == 0) return false;
+            if (webhooks && p.webhookNanos == 0) return false;
+        }
+        return true;
+    }
+
+    private static void report(long start, long sendEnd, long total, boolean webhooks) {
+        List<Payment> created = new ArrayList<>();
+        for (Payment p : payments.values()) if (p.intendedNanos != 0) created.add(p);
+        long[] createNanos;
+        synchronized (createLatencies) {
+            createNanos = createLatencies.stream().mapToLong(Long::longValue).toArray();
+        }
+        double sendSeconds = (sendEnd - start) / 1e9;
+
+        System.out.println();
+        System.out.printf("Offered:      %d requests in %.1fs (%.1f/s)%n", total, sendSeconds, total / sendSeconds);
+        System.out.printf("Responses:    %s, %d errors%n", new TreeMap<>(responses), errors.get());
+        System.out.printf("Created:      %d payments%n", created.size());
+        percentiles("Create latency", createNanos);
+
+        long[] finals = collect(created, p -> p.finalNanos == 0 ? -1 : p.finalNanos - p.intendedNanos);
+        long succeeded = created.stream().filter(p -> "success".equals(p.status)).count();
+        System.out.printf("Watched:      %d final (%d success, %d failed), %d lost%n",
+                finals.length, succeeded, finals.length - succeeded, unwatched.get());
+        percentiles("Time to final status", finals);
+
+        if (webhooks) {
+            long[] arrivals = collect(created, p -> p.webhookNanos == 0 ? -1 : p.webhookNanos - p.intendedNanos);
+            long lastWebhook = created.stream().mapToLong(p -> p.webhookNanos).max().orElse(start);
+            System.out.printf("Webhooks:     %d of %d received, %.1f/s completed%n",
+                    arrivals.length, created.size(), arrivals.length / Math.max(1e-9, (lastWebhook - start) / 1e9));
+            percentiles("Time to webhook", arrivals);
+            // Both timestamps are wall-clock; meaningful when the worker runs on this host
+            percentiles("Webhook lag", collect(created, p -> p.webhookNanos == 0 || p.finalNanos == 0 ? -1
+                    : Math.max(0, p.webhookAtMillis - p.finalAtMillis) * 1_000_000));
+        }
+    }
+
+    private static long[] collect(List<Payment> payments, ToLongFunction<Payment> value) {
+        return payments.stream().mapToLong(value).filter(v -> v >= 0).toArray();
+    }
+
+    private static void percentiles(String label, long[] nanos) {
+        if (nanos.length == 0) {
+            System.out.printf("%-22s no samples%n", label + ":");
+            return;
+        }
+        Arrays.sort(nanos);
+        StringBuilder line = new StringBuilder(String.format("%-22s", label + ":"));
+        for (double q : new double[] {0.5, 0.9, 0.99, 0.999}) {
+            long v = nanos[Math.min(nanos.length - 1, (int) Math.ceil(q * nanos.length) - 1)];
+            line.append(String.format(" p%s=%.1fms", String.valueOf(q * 100).replaceAll("\\.0$", ""), v / 1e6));
+        }
+        line.append(String.format(" max=%.1fms (n=%d)", nanos[nanos.length - 1] / 1e6, nanos.length));
+        System.out.println(line);
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> opts = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Expected --option value, got " + args[i]);
+            opts.put(args[i].substring(2), args[i + 1]);
+        }
+        return opts;
+    }
+}
@@ -0,0 +1,166 @@
+package com.gateway.workers;
+
+import com.gateway.services.Database;
+import com.gateway.services.Env;
+import com.gateway.services.JobPayload;
+import com.gateway.services.JobService;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * Deficit round-robin across the merchants in this worker's shards. Each round every merchant
+ * with queued work earns JOB_DRR_QUANTUM x its weight in credit and may take that many jobs,
+ * so a merchant with a deep backlog gets its share per round while a merchant with one
+ * waiting payment is served within the same round. Credit is dropped when a merchant's queue
+ * empties, so idle merchants cannot bank it.
+ *
+ * Weights and in-flight caps come from merchants.job_weight and merchants.job_max_in_flight
+ * (0 falls back to JOB_MERCHANT_MAX_IN_FLIGHT; 0 there means uncapped). Caps apply per worker.
+ */
+class FairDispatcher {
+    private static final int QUANTUM = Math.max(1, Env.getInt("JOB_DRR_QUANTUM", 4));
+    private static final int MAX_FETCH = Math.max(1, Env.getInt("JOB_FETCH_BATCH", 64));
+    private static final int DEFAULT_MAX_IN_FLIGHT = Env.getInt("JOB_MERCHANT_MAX_IN_FLIGHT", 0);
+    private static final long QUOTA_REFRESH_MS = 60_000;
+    private static final long ASSIGNMENT_REFRESH_MS = 5_000;
+
+    private final JobExecutor executor;
+    private final BiFunction<JobPayload, Runnable, CompletableFuture<?>> runner;
+    private final Map<String, Long> deficits = new HashMap<>();
+    private final ConcurrentHashMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private volatile Map<String, int[]> quotas = new HashMap<>();
+    private volatile List<Integer> shards = List.of();
+    private long quotasLoadedAt;
+    private long shardsLoadedAt;
+    private int cursor;
+
+    /**
+     * {@code runner} runs a job and must call the given callback once the job has finished;
+     * its future completes then too, exceptionally if the job failed.
+     */
+    FairDispatcher(JobExecutor executor, BiFunction<JobPayload, Runnable, CompletableFuture<?>> runner) {
+        this.executor = executor;
+        this.runner = runner;
+    }
+
+    /** Runs one round; returns the number of jobs handed to the executor. */
+    int round() {
+        long now = System.currentTimeMillis();
+        if (now - shardsLoadedAt >= ASSIGNMENT_REFRESH_MS) refreshShards(now);
+        if (now - quotasLoadedAt >= QUOTA_REFRESH_MS) refreshQuotas(now);
+
+        // 1. Merchants with queued work, starting one further along each round
+        List<String> ready = JobService.readyMerchants(shards);
+        deficits.keySet().retainAll(new HashSet<>(ready));
+        if (ready.isEmpty()) return 0;
+        int start = Math.floorMod(cursor++, ready.size());
+
+        // 2. Credit each merchant and decide how many jobs it may take
+        Map<String, Integer> wanted = new LinkedHashMap<>();
+        for (int i = 0; i < ready.size(); i++) {
+            String merchant = ready.get((start + i) % ready.size());
+            int[] quota = quota(merchant);
+            long earned = (long) QUANTUM * quota[0];
+            long deficit = deficits.getOrDefault(merchant, 0L) + earned;
+            int room = quota[1] > 0 ? quota[1] - inFlight(merchant).get() : Integer.MAX_VALUE;
+            int take = (int) Math.min(Math.min(deficit, room), MAX_FETCH);
+            if (take <= 0) {
+                // At its cap: keep at most one round of credit for when it frees up
+                deficits.put(merchant, Math.min(deficit, earned));
+                continue;
+            }
+            wanted.put(merchant, take);
+            deficits.put(merchant, deficit);
+        }
+
+        // 3. Fetch for every merchant in one round trip, then dispatch in round order
+        Map<String, List<JobPayload>> fetched = JobService.fetch(wanted);
+        int dispatched = 0;
+        boolean saturated = false;
+        for (Map.Entry<String, Integer> e : wanted.entrySet()) {
+            String merchant = e.getKey();
+            List<JobPayload> jobs = fetched.getOrDefault(merchant, List.of());
+            long earned = (long) QUANTUM * quota(merchant)[0];
+            long deficit = Math.min(deficits.get(merchant) - jobs.size(), earned);
+            // An emptied queue forfeits its leftover credit
+            deficits.put(merchant, jobs.size() < e.getValue() ? 0 : deficit);
+            // Once a lane refuses a job, the merchant's later jobs go back too, so its order is kept
+            List<JobPayload> back = new ArrayList<>();
+            for (JobPayload job : jobs) {
+                if (back.isEmpty() && dispatch(merchant, job)) dispatched++;
+                else back.add(job);
+            }
+            if (!back.isEmpty()) {
+                JobService.requeue(back);
+                saturated = true;
+            }
+        }
+        if (saturated) {
+            try { Thread.sleep(50); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        return dispatched;
+    }
+
+    private boolean dispatch(String merchant, JobPayload job) {
+        if (!executor.hasLane(job.getType())) {
+            JobService.deadLetter(job, "unknown job type " + job.getType());
+            return true;
+        }
+        AtomicInteger count = inFlight(merchant);
+        count.incrementAndGet();
+        if (!executor.submit(job.getType(), () -> runner.apply(job, count::decrementAndGet))) {
+            // Lane is saturated: the caller hands the job back to the front of its merchant's queue
+            count.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private AtomicInteger inFlight(String merchant) {
+        return inFlight.computeIfAbsent(merchant, k -> new AtomicInteger());
+    }
+
+    // {weight, max in flight}
+    private int[] quota(String merchant) {
+        int[] quota = quotas.get(merchant);
+        return quota != null ? quota : new int[] {1, DEFAULT_MAX_IN_FLIGHT};
+    }
+
+    private void refreshShards(long now) {
+        shardsLoadedAt = now;
+        List<Integer> assigned = JobService.assignedShards();
+        if (!assigned.equals(shards)) {
+            System.out.println("Worker: serving " + assigned.size() + "/" + JobService.SHARDS + " job shards " + assigned);
+            shards = assigned;
+        }
+    }
+
+    private void refreshQuotas(long now) {
+        quotasLoadedAt = now;
+        Map<String, int[]> loaded = new HashMap<>();
+        try (Connection conn = Database.connect();
+             PreparedStatement stmt = conn.prepareStatement("SELECT id, job_weight, job_max_in_flight FROM merchants")) {
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                int cap = rs.getInt("job_max_in_flight");
+                loaded.put(rs.getString("id"), new int[] {Math.max(1, rs.getInt("job_weight")), cap > 0 ? cap : DEFAULT_MAX_IN_FLIGHT});
+            }
+            quotas = loaded;
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    int shardCount() {
+        return shards.size();
+    }
+}
@@ -0,0 +1,166 @@
+package com.gateway.workers;
+
+import com.gateway.services.Env;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs jobs on independent per-type lanes. Each lane admits at most
+ * concurrency + queue capacity jobs, so a saturated lane rejects new work
+ * instead of stalling dispatch for the other lanes. A task returns a future for
+ * work that finishes after its thread is released (webhook delivery); the lane
+ * counts the task completed or failed when that future does.
+ */
+public class JobExecutor {
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+    private final boolean virtualThreads;
+
+    public JobExecutor(String... jobTypes) {
+        this.virtualThreads = Env.getBool("WORKER_VIRTUAL_THREADS", true) && virtualThreadsAvailable();
+        for (String type : jobTypes) {
+            int concurrency = Env.getInt("WORKER_CONCURRENCY_" + type, 16);
+            int capacity = Env.getInt("WORKER_QUEUE_CAPACITY_" + type, concurrency * 2);
+            lanes.put(type, new Lane(type, concurrency, capacity));
+        }
+        System.out.println("JobExecutor: " + (virtualThreads ? "virtual" : "platform") + " threads, lanes=" + lanes.keySet());
+    }
+
+    public boolean hasLane(String jobType) {
+        return lanes.containsKey(jobType);
+    }
+
+    /** Returns false when the lane is full; the caller decides what to do with the job. */
+    public boolean submit(String jobType, Supplier<CompletableFuture<?>> task) {
+        Lane lane = lanes.get(jobType);
+        if (lane == null) throw new IllegalArgumentException("No lane for job type " + jobType);
+        return lane.submit(task);
+    }
+
+    /** Stops accepting work and waits for admitted jobs to finish. */
+    public boolean drain(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        boolean clean = true;
+        for (Lane lane : lanes.values()) lane.pool.shutdown();
+        for (Lane lane : lanes.values()) {
+            try {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                clean &= lane.pool.awaitTermination(remaining, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return clean;
+    }
+
+    public Map<String, Map<String, Long>> stats() {
+        Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+        for (Lane lane : lanes.values()) stats.put(lane.type, lane.stats());
+        return stats;
+    }
+
+    private ExecutorService newPool(String type, int concurrency) {
+        AtomicInteger seq = new AtomicInteger();
+        if (virtualThreads) {
+            try {
+                // Resolved reflectively so the build stays on a JDK 17 baseline
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "job-" + type + "-", 0L);
+                ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                // fall through to a platform pool
+            }
+        }
+        return Executors.newFixedThreadPool(concurrency, r -> new Thread(r, "job-" + type + "-" + seq.getAndIncrement()));
+    }
+
+    private static boolean virtualThreadsAvailable() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private final class Lane {
+        final String type;
+        final int concurrency;
+        final Semaphore admitted;
+        final Semaphore running;
+        final ExecutorService pool;
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger waiting = new AtomicInteger();
+        final LongAdder completed = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+
+        Lane(String type, int concurrency, int capacity) {
+            this.type = type;
+            this.concurrency = concurrency;
+            this.admitted = new Semaphore(concurrency + capacity);
+            // Virtual threads are unbounded, so the lane's concurrency is enforced here instead
+            this.running = new Semaphore(concurrency);
+            this.pool = newPool(type, concurrency);
+        }
+
+        boolean submit(Supplier<CompletableFuture<?>> task) {
+            if (!admitted.tryAcquire()) {
+                rejected.increment();
+                return false;
+            }
+            waiting.incrementAndGet();
+            try {
+                pool.execute(() -> run(task));
+                return true;
+            } catch (RuntimeException e) {
+                waiting.decrementAndGet();
+                admitted.release();
+                rejected.increment();
+                return false;
+            }
+        }
+
+        private void run(Supplier<CompletableFuture<?>> task) {
+            running.acquireUninterruptibly();
+            waiting.decrementAndGet();
+            active.incrementAndGet();
+            try {
+                task.get().whenComplete((result, error) -> {
+                    if (error == null) completed.increment();
+                    else failed.increment();
+                });
+            } catch (Throwable t) {
+                failed.increment();
+                t.printStackTrace();
+            } finally {
+                active.decrementAndGet();
+                running.release();
+                admitted.release();
+            }
+        }
+
+        Map<String, Long> stats() {
+            Map<String, Long> stats = new LinkedHashMap<>();
+            stats.put("concurrency", (long) concurrency);
+            stats.put("running", (long) active.get());
+            stats.put("queued", (long) waiting.get());
+            stats.put("completed", completed.sum());
+            stats.put("failed", failed.sum());
+            stats.put("rejected", rejected.sum());
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.gateway.workers;
+
+import com.gateway.services.Database;
+import com.gateway.services.Env;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the time-partitioned tables ready ahead and trimmed behind: webhook_logs by week,
+ * idempotency_keys by day, both on created_at. Every PARTITION_MAINTENANCE_INTERVAL_MS it
+ * creates the partitions starting within the next PARTITION_PREMAKE_DAYS, and drops every
+ * partition whose whole range is older than the table's retention (WEBHOOK_LOG_RETENTION_DAYS,
+ * IDEMPOTENCY_TTL_SECONDS). With PARTITION_ARCHIVE_DIR set, a partition is first copied there
+ * as gzipped CSV and only dropped once the file is complete.
+ *
+ * The legacy table attached FROM (MINVALUE) when the tables were first partitioned is tracked
+ * like any other partition: it holds every pre-partitioning row and is dropped whole once its
+ * upper bound passes retention, with a warning logged first.
+ *
+ * Bounds and the retention cutoff come from the database clock (LOCALTIMESTAMP), the same clock
+ * as the created_at defaults, so a worker in another time zone can't shift them.
+ *
+ * Every worker runs this; a session advisory lock lets one of them do the DDL at a time.
+ */
+class PartitionMaintenance {
+    private static final long INTERVAL_MS = Env.getInt("PARTITION_MAINTENANCE_INTERVAL_MS", 3_600_000);
+    private static final int PREMAKE_DAYS = Env.getInt("PARTITION_PREMAKE_DAYS", 14);
+    private static final String ARCHIVE_DIR = Env.get("PARTITION_ARCHIVE_DIR", null);
+    private static final long LOCK_KEY = 0x7061727469L;
+    private static final Pattern RANGE = Pattern.compile("FROM \\((.+)\\) TO \\((.+)\\)");
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private static final Table[] TABLES = {
+        new Table("webhook_logs", ChronoUnit.WEEKS, Duration.ofDays(Env.getInt("WEBHOOK_LOG_RETENTION_DAYS", 30))),
+        new Table("idempotency_keys", ChronoUnit.DAYS, Duration.ofSeconds(Env.getInt("IDEMPOTENCY_TTL_SECONDS", 86400))),
+    };
+
+    static void start() {
+        Thread maintenance = new Thread(() -> {
+            while (true) {
+                runOnce();
+                try { Thread.sleep(INTERVAL_MS); } catch (InterruptedException e) { return; }
+            }
+        }, "partition-maintenance");
+        maintenance.setDaemon(true);
+        maintenance.start();
+    }
+
+    static void runOnce() {
+        try (Connection conn = Database.connect()) {
+            if (!advisoryLock(conn, "pg_try_advisory_lock")) return;
+            try (Statement stmt = conn.createStatement()) {
+                // DDL waits behind long queries; give up rather than queue every writer behind it
+                stmt.execute("SET lock_timeout = '5s'");
+                for (Table table : TABLES) {
+                    try {
+                        maintain(conn, table);
+                    } catch (Exception e) { e.printStackTrace(); }
+                }
+            } finally {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("RESET lock_timeout");
+                }
+                advisoryLock(conn, "pg_advisory_unlock");
+            }
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    private static void maintain(Connection conn, Table table) throws Exception {
+        List<Partition> partitions = partitions(conn, table.name);
+        LocalDateTime now = dbNow(conn);
+
+        // 1. Create missing periods up to the horizon, starting where the existing ones end
+        LocalDateTime covered = null;
+        for (Partition p : partitions) {
+            if (covered == null || p.to.isAfter(covered)) covered = p.to;
+        }
+        LocalDateTime first = covered != null ? covered : oldestDefaultRow(conn, table);
+        LocalDateTime horizon = now.plusDays(PREMAKE_DAYS);
+        for (LocalDateTime from = table.periodStart(first != null && first.isBefore(now) ? first : now);
+             from.isBefore(horizon); from = from.plus(1, table.period)) {
+            LocalDateTime to = from.plus(1, table.period);
+            if (covered != null && !to.isAfter(covered)) continue;
+            create(conn, table, covered != null && covered.isAfter(from) ? covered : from, to);
+        }
+
+        // 2. Archive and drop partitions whose newest possible row is past retention
+        LocalDateTime cutoff = now.minus(table.retention);
+        for (Partition p : partitions) {
+            if (p.to.isAfter(cutoff)) continue;
+            if (p.legacy) {
+                System.out.println("Partitions: WARNING dropping legacy partition " + p.name + " with every " + table.name
+                        + " row created before " + p.to + (ARCHIVE_DIR != null ? " (archiving first)" : " (not archived, PARTITION_ARCHIVE_DIR is unset)"));
+            }
+            // DROP needs ACCESS EXCLUSIVE on the parent (CONCURRENTLY detach is not allowed next to a
+            // default partition); if lock_timeout hits, leave it for the next run and carry on
+            try {
+                if (ARCHIVE_DIR != null) archive(conn, p.name);
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("DROP TABLE " + p.name);
+                }
+                System.out.println("Partitions: dropped " + p.name + (ARCHIVE_DIR != null ? " (archived)" : ""));
+            } catch (Exception e) {
+                System.out.println("Partitions: could not drop " + p.name + ", retrying next run: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Builds the partition as a standalone table and attaches it, which only blocks other DDL
+     * on the parent; rows that landed in the default partition for this range move across in
+     * the same transaction.
+     */
+    private static void create(Connection conn, Table table, LocalDateTime from, LocalDateTime to) throws SQLException {
+        String name = table.name + "_p" + SUFFIX.format(from);
+        String range = "created_at >= " + literal(from) + " AND created_at < " + literal(to);
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE " + name + " (LIKE " + table.name + " INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+            int moved = stmt.executeUpdate("WITH moved AS (DELETE FROM " + table.name + "_default WHERE " + range + " RETURNING *) " +
+                    "INSERT INTO " + name + " SELECT * FROM moved");
+            stmt.execute("ALTER TABLE " + table.name + " ATTACH PARTITION " + name + " FOR VALUES FROM (" + literal(from) + ") TO (" + literal(to) + ")");
+            conn.commit();
+            System.out.println("Partitions: created " + name + (moved > 0 ? " with " + moved + " rows from the default partition" : ""));
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /** Streams the partition to ARCHIVE_DIR/name.csv.gz; the file only appears once complete. */
+    private static void archive(Connection conn, String name) throws Exception {
+        Path dir = Paths.get(ARCHIVE_DIR);
+        Files.createDirectories(dir);
+        Path partial = dir.resolve(name + ".csv.gz.partial");
+        CopyManager copy = conn.unwrap(PGConnection.class).getCopyAPI();
+        long rows;
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(partial), 1 << 16)) {
+            rows = copy.copyOut("COPY " + name + " TO STDOUT WITH (FORMAT csv, HEADER)", out);
+        }
+        Files.move(partial, dir.resolve(name + ".csv.gz"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Partitions: archived " + rows + " rows of " + name);
+    }
+
+    // Range partitions of the table, including the legacy one bounded FROM (MINVALUE); the default partition is skipped
+    private static List<Partition> partitions(Connection conn, String table) throws SQLException {
+        List<Partition> partitions = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) AS bound FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = ?::regclass")) {
+            stmt.setString(1, table);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                Matcher m = RANGE.matcher(rs.getString("bound"));
+                if (m.find()) partitions.add(new Partition(rs.getString("relname"), parse(m.group(2)), m.group(1).equals("MINVALUE")));
+            }
+        }
+        return partitions;
+    }
+
+    private static LocalDateTime dbNow(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT LOCALTIMESTAMP");
+            rs.next();
+            return rs.getObject(1, LocalDateTime.class);
+        }
+    }
+
+    private static LocalDateTime oldestDefaultRow(Connection conn, Table table) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT min(created_at) FROM " + table.name + "_default");
+            Timestamp oldest = rs.next() ? rs.getTimestamp(1) : null;
+            return oldest != null ? oldest.toLocalDateTime() : null;
+        }
+    }
+
+    private static boolean advisoryLock(Connection conn, String function) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT " + function + "(?)")) {
+            stmt.setLong(1, LOCK_KEY);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    // Bounds print as '2026-10-12 00:00:00'
+    private static LocalDateTime parse(String bound) {
+        return LocalDateTime.parse(bound.replace("'", "").trim().replace(' ', 'T'));
+    }
+
+    private static String literal(LocalDateTime time) {
+        return "'" + Timestamp.valueOf(time) + "'";
+    }
+
+    private static final class Table {
+        final String name;
+        final ChronoUnit period;
+        final Duration retention;
+
+        Table(String name, ChronoUnit period, Duration retention) {
+            this.name = name;
+            this.period = period;
+            this.retention = retention;
+        }
+
+        // Weeks start on Monday, as with date_trunc('week', ...)
+        LocalDateTime periodStart(LocalDateTime time) {
+            LocalDateTime day = time.truncatedTo(ChronoUnit.DAYS);
+            return period == ChronoUnit.WEEKS ? day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)) : day;
+        }
+    }
+
+    private static final class Partition {
+        final String name;
+        final LocalDateTime to;
+        final boolean legacy;
+
+        Partition(String name, LocalDateTime to, boolean legacy) {
+            this.name = name;
+            this.to = to;
+            this.legacy = legacy;
+        }
+    }
+}
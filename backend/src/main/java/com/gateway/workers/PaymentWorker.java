@@ -1,69 +1,227 @@
 package com.gateway.workers;
 
+import com.gateway.services.Acquirer;
+import com.gateway.services.Continuation;
+import com.gateway.services.Database;
+import com.gateway.services.Env;
 import com.gateway.services.JobService;
 import com.gateway.services.JobPayload;
+import com.gateway.services.Metrics;
+import com.gateway.services.Outbox;
 import com.gateway.jobs.ProcessPaymentJob;
 import com.gateway.jobs.DeliverWebhookJob;
 import com.gateway.jobs.ProcessRefundJob;
+import com.gateway.jobs.WebhookBatcher;
+import com.gateway.jobs.WebhookDispatcher;
+import com.gateway.jobs.WebhookRetryPolicy;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class PaymentWorker {
 
+    private static final JobExecutor executor = new JobExecutor("PROCESS_PAYMENT", "PROCESS_REFUND", "DELIVER_WEBHOOK");
+    private static volatile boolean running = true;
+    private static final String[] TYPE = {"type"};
+    private static final String[] TYPE_OUTCOME = {"type", "outcome"};
+    private static final long SATURATED_RETRY_MS = 1000;
+    private static final FairDispatcher dispatcher = new FairDispatcher(executor, PaymentWorker::run);
+
     public static void main(String[] args) {
         System.out.println("Worker Service Started...");
-        startRetryPoller();
+        Database.init(2, 20);
+        WebhookRetryPolicy.init();
+        Acquirer.get();
+        JobService.recoverOwnJobs();
+        startHeartbeat();
+        startScheduler();
+        startRetryReconciler();
+        // Jobs write their webhooks to the outbox; relay them from here too so they don't wait on an API poll
+        Outbox.startRelay();
+        PartitionMaintenance.start();
+        startStatsReporter();
+        registerMetrics();
 
-        while (true) {
-            JobPayload job = JobService.waitForJob();
-            if (job != null) {
-                try {
-                    switch (job.getType()) {
-                        case "PROCESS_PAYMENT":
-                            ProcessPaymentJob.execute(job.getData().replace("\"", "")); 
-                            break;
-                        case "DELIVER_WEBHOOK":
-                            DeliverWebhookJob.execute(job.getData());
-                            break;
-                        case "PROCESS_REFUND":
-                            ProcessRefundJob.execute(job.getData().replace("\"", ""));
-                            break;
-                        default:
-                            System.out.println("Unknown job type: " + job.getType());
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
+        Thread main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("Worker: draining in-flight jobs...");
+            running = false;
+            try { main.join(5000); } catch (InterruptedException ignored) {}
+            long timeout = Env.getInt("WORKER_DRAIN_TIMEOUT_MS", 30_000);
+            boolean clean = executor.drain(timeout);
+            WebhookBatcher.flush();
+            try {
+                clean &= WebhookDispatcher.drain(timeout);
+            } catch (InterruptedException e) { clean = false; }
+            System.out.println("Worker: drain " + (clean ? "complete" : "timed out") + " " + executor.stats());
+            JobService.leave();
+        }));
+
+        // Fetched jobs go straight to a lane, so stopping between rounds strands nothing
+        long idleMs = 1;
+        long maxIdleMs = Env.getInt("JOB_POLL_IDLE_MS", 50);
+        while (running) {
+            if (dispatcher.round() > 0) {
+                idleMs = 1;
+                continue;
+            }
+            try { Thread.sleep(idleMs); } catch (InterruptedException e) { break; }
+            idleMs = Math.min(idleMs * 2, maxIdleMs);
+        }
+    }
+
+    /**
+     * Runs a job on its lane thread and calls {@code finished} once it is acked, failed or suspended.
+     * The returned future completes at the same point, exceptionally if the job failed.
+     */
+    private static CompletableFuture<Void> run(JobPayload job, Runnable finished) {
+        long start = System.nanoTime();
+        if (job.getEnqueuedAt() > 0) {
+            long lagMs = Math.max(0, System.currentTimeMillis() - job.getEnqueuedAt());
+            Metrics.histogram("job_queue_lag_seconds", "Time from enqueue (or due time) to execution start", TYPE, job.getType())
+                    .observeNanos(lagMs * 1_000_000);
+        }
+        CompletableFuture<Continuation> done;
+        JobService.setCurrentTrace(job.getTraceId());
+        try {
+            done = execute(job);
+        } catch (Exception e) {
+            observe(job, start, "failure");
+            JobService.fail(job, e);
+            finished.run();
+            throw new RuntimeException("Job " + job.getType() + " " + job.getId() + " failed", e);
+        } finally {
+            JobService.setCurrentTrace(null);
+        }
+        // Async jobs (webhook delivery) finish after the lane thread has moved on
+        return done.handle((next, error) -> {
+            try {
+                boolean saturated = error != null && saturated(error);
+                observe(job, start, saturated ? "deferred" : error != null ? "failure" : next != null ? "suspended" : "success");
+                if (error == null && next != null) JobService.suspend(job, next);
+                else if (error == null) JobService.ack(job);
+                else if (saturated) JobService.defer(job, System.currentTimeMillis() + SATURATED_RETRY_MS);
+                else {
+                    error.printStackTrace();
+                    JobService.fail(job, error instanceof Exception ? (Exception) error : new RuntimeException(error));
+                    throw new CompletionException(error);
                 }
+            } finally {
+                finished.run();
             }
+            return null;
+        });
+    }
+
+    // The merchant's webhook queue was full; not the job's fault, so it doesn't cost an attempt
+    private static boolean saturated(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof WebhookDispatcher.Saturated) return true;
         }
+        return false;
+    }
+
+    private static void observe(JobPayload job, long start, String outcome) {
+        Metrics.histogram("job_duration_seconds", "Job execution time, including async completion", TYPE_OUTCOME, job.getType(), outcome)
+                .observeSince(start);
+    }
+
+    private static void registerMetrics() {
+        JobService.registerMetrics();
+        Database.registerMetrics();
+        Metrics.gauge("webhooks_in_flight", "Webhook HTTP requests in flight", WebhookDispatcher::inFlight);
+        Metrics.gauge("job_shards_owned", "Job queue shards served by this worker", dispatcher::shardCount);
+        Metrics.serve(Env.getInt("WORKER_METRICS_PORT", 9091));
     }
 
-    public static void startRetryPoller() {
-        new Thread(() -> {
+    /** Completes with a continuation when the job is waiting on the acquirer, else with null. */
+    private static CompletableFuture<Continuation> execute(JobPayload job) throws Exception {
+        switch (job.getType()) {
+            case "PROCESS_PAYMENT":
+                return CompletableFuture.completedFuture(ProcessPaymentJob.execute(job.getData(), job.getState()));
+            case "DELIVER_WEBHOOK":
+                return DeliverWebhookJob.execute(job.getData()).thenApply(ignored -> null);
+            case "PROCESS_REFUND":
+                return CompletableFuture.completedFuture(ProcessRefundJob.execute(job.getData(), job.getState()));
+            default:
+                return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private static void startHeartbeat() {
+        Thread heartbeat = new Thread(() -> {
+            while (true) {
+                JobService.heartbeat();
+                try { Thread.sleep(5000); } catch (InterruptedException e) { return; }
+            }
+        }, "worker-heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+    }
+
+    private static void startStatsReporter() {
+        Thread reporter = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(60000);
+                    System.out.println("Worker lanes: " + executor.stats() + " webhooks_in_flight=" + WebhookDispatcher.inFlight() + " db=" + Database.poolStats());
+                } catch (InterruptedException e) { return; }
+            }
+        }, "worker-stats");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    /** Promotes scheduled jobs (webhook retries, suspended jobs) onto the work queue as they fall due. */
+    private static void startScheduler() {
+        long interval = Env.getInt("JOB_SCHEDULER_INTERVAL_MS", 100);
+        Thread scheduler = new Thread(() -> {
+            while (true) {
+                JobService.promoteDueJobs();
+                try { Thread.sleep(interval); } catch (InterruptedException e) { return; }
+            }
+        }, "job-scheduler");
+        scheduler.setDaemon(true);
+        scheduler.start();
+    }
+
+    /**
+     * Safety net for retries whose scheduled job was lost (e.g. Redis restarted without
+     * persistence): re-enqueues pending log rows that are well past their next_retry_at.
+     * If the original retry was only delayed (e.g. every worker was down), both copies run,
+     * but DeliverWebhookJob claims the attempt on the row first, so only one is sent.
+     */
+    private static void startRetryReconciler() {
+        Thread reconciler = new Thread(() -> {
+            String sql = "UPDATE webhook_logs SET next_retry_at = CURRENT_TIMESTAMP + INTERVAL '15 minutes' WHERE id IN (" +
+                    "SELECT id FROM webhook_logs WHERE status = 'pending' AND next_retry_at < CURRENT_TIMESTAMP - INTERVAL '15 minutes' " +
+                    "LIMIT 500 FOR UPDATE SKIP LOCKED) RETURNING id, merchant_id, attempts, payload";
             while (true) {
                 try {
-                    Thread.sleep(10000); // Check every 10 seconds for testing responsiveness
-                    System.out.println("Poller: Checking for retriable webhooks...");
-                    try (Connection conn = com.gateway.services.Database.connect()) {
-                        String sql = "SELECT id, payload, attempts FROM webhook_logs WHERE status = 'pending' AND next_retry_at < CURRENT_TIMESTAMP";
-                        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                            ResultSet rs = stmt.executeQuery();
-                            while (rs.next()) {
-                                int attempts = rs.getInt("attempts");
-                                if (attempts >= 5) {
-                                    conn.createStatement().execute("UPDATE webhook_logs SET status = 'failed' WHERE id = '" + rs.getString("id") + "'::uuid");
-                                } else {
-                                    // Re-queue
-                                    JobService.enqueueJob("DELIVER_WEBHOOK", rs.getString("payload"));
-                                    // Mark processed temporarily to avoid double queueing before worker picks it up
-                                    conn.createStatement().execute("UPDATE webhook_logs SET next_retry_at = CURRENT_TIMESTAMP + INTERVAL '1 hour' WHERE id = '" + rs.getString("id") + "'::uuid");
-                                }
-                            }
+                    Thread.sleep(300_000);
+                    try (Connection conn = Database.connect(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+                        ResultSet rs = stmt.executeQuery();
+                        List<JobPayload> jobs = new ArrayList<>();
+                        while (rs.next()) {
+                            JobPayload job = new JobPayload("DELIVER_WEBHOOK", DeliverWebhookJob.retry(rs.getString("id"), rs.getInt("attempts") + 1, rs.getString("payload")));
+                            job.setMerchantId(rs.getString("merchant_id"));
+                            jobs.add(job);
+                        }
+                        if (!jobs.isEmpty()) {
+                            JobService.enqueueBatch(jobs);
+                            System.out.println("Retry reconciler: re-enqueued " + jobs.size() + " overdue webhooks");
                         }
                     }
+                } catch (InterruptedException e) {
+                    return;
                 } catch (Exception e) { e.printStackTrace(); }
             }
-        }).start();
+        }, "webhook-retry-reconciler");
+        reconciler.setDaemon(true);
+        reconciler.start();
     }
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+package com.gateway.services;
+
+import org.junit.jupiter.api.Test;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JobCodecTest {
+    private static final String MERCHANT = "6f1c2c0e-4f6a-4b7e-9d43-2a3f1e5b7c11";
+    private static final String TRACE = "4bf92f3577b34da6a3ce929d0e0e4736";
+
+    @Test
+    void roundTripsEveryJobType() throws Exception {
+        assertRoundTrip(job("PROCESS_PAYMENT", "pay_0123456789abcd", MERCHANT, TRACE, null));
+        assertRoundTrip(job("PROCESS_REFUND", "rfnd_0123456789abcd", MERCHANT, TRACE, "{\"step\":\"awaiting\"}"));
+        assertRoundTrip(job("DELIVER_WEBHOOK", "{\"merchant_id\":\"" + MERCHANT + "\",\"event\":\"payment.success\",\"note\":\"caf\u00e9\"}", MERCHANT, TRACE, null));
+        // Types without a code, ids that are not UUIDs and jobs without merchant or trace
+        assertRoundTrip(job("REPORT", "", null, null, null));
+        JobPayload odd = job("PROCESS_PAYMENT", "pay_1", "_", "not-a-trace", null);
+        odd.setId("legacy-id-7");
+        assertRoundTrip(odd);
+    }
+
+    @Test
+    void binaryIsSmallerThanJson() throws Exception {
+        JobPayload webhook = job("DELIVER_WEBHOOK", "{\"merchant_id\":\"" + MERCHANT + "\",\"event\":\"payment.success\"}", MERCHANT, TRACE, null);
+        byte[] binary = JobCodec.encode(webhook);
+        assertEquals((byte) 0xFE, binary[0]);
+        assertTrue(binary.length < new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsBytes(webhook).length);
+    }
+
+    @Test
+    void readsLegacyJsonEntries() throws Exception {
+        // Ids were JSON-encoded into data by older writers; unknown fields are ignored
+        JobPayload quoted = JobCodec.decode(utf8("{\"id\":\"0b7c5e9a-3f2d-4c1b-8e6a-9d4f2b1c7a30\",\"type\":\"PROCESS_PAYMENT\","
+                + "\"data\":\"\\\"pay_9\\\"\",\"attempts\":2,\"enqueuedAt\":1700000000000,\"extra\":true}"));
+        assertEquals("PROCESS_PAYMENT", quoted.getType());
+        assertEquals("pay_9", quoted.getData());
+        assertEquals(2, quoted.getAttempts());
+        assertEquals(1700000000000L, quoted.getEnqueuedAt());
+        assertNull(quoted.getMerchantId());
+        assertNull(quoted.getTraceId());
+
+        JobPayload webhook = JobCodec.decode(utf8("{\"id\":\"x\",\"type\":\"DELIVER_WEBHOOK\",\"merchantId\":\"" + MERCHANT
+                + "\",\"data\":\"{\\\"event\\\":\\\"payment.failed\\\"}\",\"attempts\":0,\"enqueuedAt\":5}"));
+        assertEquals("{\"event\":\"payment.failed\"}", webhook.getData());
+        assertEquals(MERCHANT, webhook.getMerchantId());
+
+        // A legacy entry is rewritten in the binary format on its next retry
+        assertRoundTrip(webhook);
+    }
+
+    @Test
+    void rejectsUnknownVersionsAndGarbage() throws Exception {
+        byte[] entry = JobCodec.encode(job("PROCESS_PAYMENT", "pay_1", MERCHANT, TRACE, null));
+        entry[1] = 2;
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> JobCodec.decode(entry));
+        assertTrue(e.getMessage().contains("version 2"), e.getMessage());
+
+        assertThrows(IllegalArgumentException.class, () -> JobCodec.decode(utf8("pay_1")));
+        byte[] truncated = JobCodec.encode(job("PROCESS_PAYMENT", "pay_1", MERCHANT, TRACE, null));
+        assertThrows(IllegalArgumentException.class, () -> JobCodec.decode(java.util.Arrays.copyOf(truncated, truncated.length - 3)));
+    }
+
+    private static JobPayload job(String type, String data, String merchantId, String traceId, String state) {
+        JobPayload job = new JobPayload(type, data);
+        job.setId("0b7c5e9a-3f2d-4c1b-8e6a-9d4f2b1c7a30");
+        job.setMerchantId(merchantId);
+        job.setTraceId(traceId);
+        job.setState(state);
+        job.setAttempts(3);
+        job.setEnqueuedAt(1_760_000_000_123L);
+        return job;
+    }
+
+    private static void assertRoundTrip(JobPayload job) throws Exception {
+        JobPayload decoded = JobCodec.decode(JobCodec.encode(job));
+        assertEquals(job.getType(), decoded.getType());
+        assertEquals(job.getId(), decoded.getId());
+        assertEquals(job.getData(), decoded.getData());
+        assertEquals(job.getMerchantId(), decoded.getMerchantId());
+        assertEquals(job.getTraceId(), decoded.getTraceId());
+        assertEquals(job.getState(), decoded.getState());
+        assertEquals(job.getAttempts(), decoded.getAttempts());
+        assertEquals(job.getEnqueuedAt(), decoded.getEnqueuedAt());
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
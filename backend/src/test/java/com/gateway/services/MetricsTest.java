@@ -0,0 +1,43 @@
+package com.gateway.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+    @Test
+    void bucketsSplitEachPowerOfTwoIntoQuarters() {
+        assertEquals(0, Metrics.bucket(0));
+        assertEquals(0, Metrics.bucket(8192));
+        assertEquals(1, Metrics.bucket(8193));
+        assertEquals(10240, Metrics.upperBound(1));
+        assertEquals(16384, Metrics.upperBound(4));
+        assertEquals(20480, Metrics.upperBound(5));
+        // 1.5ms falls in (1.3107ms, 1.5729ms], a quarter of 2^20 ns wide
+        int ms = Metrics.bucket(1_500_000);
+        assertTrue(Metrics.upperBound(ms - 1) < 1_500_000 && Metrics.upperBound(ms) >= 1_500_000);
+        assertEquals(1L << 35, Metrics.upperBound(Metrics.bucket(1L << 35)));
+        assertEquals(Metrics.bucket(Long.MAX_VALUE), Metrics.bucket((1L << 35) + 1));
+    }
+
+    @Test
+    void everyValueLandsInTheFirstBucketThatHoldsIt() {
+        for (long v = 1; v < 1L << 36; v = v * 3 / 2 + 7) {
+            int b = Metrics.bucket(v);
+            if (b > 0) assertTrue(Metrics.upperBound(b - 1) < v, "value " + v);
+            if (b < Metrics.bucket(Long.MAX_VALUE)) assertTrue(Metrics.upperBound(b) >= v, "value " + v);
+        }
+    }
+
+    @Test
+    void rendersCumulativeBuckets() {
+        Metrics.Histogram h = Metrics.histogram("test_render_seconds", "Test series", new String[0]);
+        h.observeNanos(9000);
+        h.observeNanos(1_500_000);
+        String out = Metrics.render();
+        assertTrue(out.contains("test_render_seconds_bucket{le=\"8.192E-6\"} 0\n"));
+        assertTrue(out.contains("test_render_seconds_bucket{le=\"1.024E-5\"} 1\n"));
+        assertTrue(out.contains("test_render_seconds_bucket{le=\"+Inf\"} 2\n"));
+        assertTrue(out.contains("test_render_seconds_count 2\n"));
+    }
+}
@@ -0,0 +1,29 @@
+package com.gateway.services;
+
+import org.junit.jupiter.api.Test;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimulatedAcquirerTest {
+    @Test
+    void parsesEveryLatencyKind() {
+        SplittableRandom rng = new SplittableRandom(42);
+        assertEquals(250, SimulatedAcquirer.Latency.parse("fixed:250").sample(rng));
+        long uniform = SimulatedAcquirer.Latency.parse("uniform:100:200").sample(rng);
+        assertTrue(uniform >= 100 && uniform <= 200);
+        assertTrue(SimulatedAcquirer.Latency.parse("normal:100:0").sample(rng) == 100);
+        assertTrue(SimulatedAcquirer.Latency.parse("exponential:50").sample(rng) >= 0);
+        assertTrue(SimulatedAcquirer.Latency.parse("LOGNORMAL:200:2000").sample(rng) > 0);
+    }
+
+    @Test
+    void rejectsMalformedAndOutOfRangeSpecs() {
+        String[] invalid = {"", "fixed", "fixed:-1", "fixed:abc", "uniform:200:100", "uniform:100", "normal:100:-5",
+                "exponential:0", "exponential:-10", "lognormal:0:100", "lognormal:200:100", "gamma:1:2", "fixed:NaN", "uniform:1:Infinity"};
+        for (String spec : invalid) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> SimulatedAcquirer.Latency.parse(spec), spec);
+            assertEquals("Invalid latency spec: " + spec, e.getMessage());
+        }
+    }
+}
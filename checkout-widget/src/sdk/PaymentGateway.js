@@ -39,6 +39,75 @@ class PaymentGateway {
     }
   }
 
+  /**
+   * Calls onUpdate({ payment_id, status, updated_at }) on every status change until the
+   * payment succeeds or fails. Reads the Server-Sent Events stream with fetch, since
+   * EventSource can't send the X-Api-Key header and the key must stay out of URLs, or
+   * long-polls where response streaming is unavailable. Returns a function that stops watching.
+   */
+  static watchPayment({ key, paymentId, onUpdate, apiBase = 'http://localhost:8000/api/v1' }) {
+    const url = `${apiBase}/payments/${encodeURIComponent(paymentId)}/events`;
+    const isFinal = (s) => s === 'success' || s === 'failed';
+    const controller = typeof AbortController !== 'undefined' ? new AbortController() : null;
+    const signal = controller ? controller.signal : undefined;
+    let stopped = false;
+
+    // Resolves true once a final status has been delivered, false if the stream ended first
+    const stream = async () => {
+      const res = await fetch(url, { headers: { 'X-Api-Key': key, Accept: 'text/event-stream' }, signal });
+      if (!res.ok || !res.body) throw new Error(`status stream failed: ${res.status}`);
+      const reader = res.body.getReader();
+      const decoder = new TextDecoder();
+      let buffer = '';
+      while (!stopped) {
+        const { done, value } = await reader.read();
+        if (done) return false;
+        buffer += decoder.decode(value, { stream: true });
+        let end;
+        while ((end = buffer.indexOf('\n\n')) >= 0) {
+          const data = buffer.slice(0, end).split('\n')
+            .filter((line) => line.startsWith('data:'))
+            .map((line) => line.slice(5).trim())
+            .join('\n');
+          buffer = buffer.slice(end + 2);
+          if (!data) continue;
+          const event = JSON.parse(data);
+          onUpdate(event);
+          if (isFinal(event.status)) {
+            reader.cancel();
+            return true;
+          }
+        }
+      }
+      return false;
+    };
+
+    const poll = async () => {
+      const res = await fetch(`${url}?timeout=25`, { headers: { 'X-Api-Key': key }, signal });
+      if (!res.ok) throw new Error(`status poll failed: ${res.status}`);
+      const event = await res.json();
+      onUpdate(event);
+      return isFinal(event.status);
+    };
+
+    const streaming = typeof ReadableStream !== 'undefined' && typeof TextDecoder !== 'undefined';
+    const watch = async () => {
+      while (!stopped) {
+        try {
+          if (await (streaming ? stream() : poll())) return;
+        } catch (e) {
+          if (stopped) return;
+          await new Promise((r) => setTimeout(r, 1000));
+        }
+      }
+    };
+    watch();
+    return () => {
+      stopped = true;
+      if (controller) controller.abort();
+    };
+  }
+
   close() {
     if (this.modal) {
       document.body.removeChild(this.modal);
@@ -7,6 +7,12 @@ CREATE TABLE IF NOT EXISTS merchants (
     name VARCHAR(255),
     webhook_secret VARCHAR(64),
     webhook_url VARCHAR(255),
+    webhook_batch_size INTEGER NOT NULL DEFAULT 0,
+    webhook_batch_window_ms INTEGER NOT NULL DEFAULT 1000,
+    -- Job scheduling: share of worker capacity relative to other merchants, and a per-worker
+    -- cap on concurrently running jobs (0 = JOB_MERCHANT_MAX_IN_FLIGHT)
+    job_weight INTEGER NOT NULL DEFAULT 1 CHECK (job_weight > 0),
+    job_max_in_flight INTEGER NOT NULL DEFAULT 0 CHECK (job_max_in_flight >= 0),
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
 );
 
@@ -21,6 +27,8 @@ CREATE TABLE IF NOT EXISTS payments (
     vpa VARCHAR(255),
     error_description TEXT,
     captured BOOLEAN DEFAULT false,
+    -- Sum of non-failed refunds, reserved when a refund is created and released if it fails
+    refunded_amount INTEGER NOT NULL DEFAULT 0 CHECK (refunded_amount >= 0),
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
 );
@@ -36,8 +44,27 @@ CREATE TABLE IF NOT EXISTS refunds (
     processed_at TIMESTAMP
 );
 
+-- Databases created before webhook_logs and idempotency_keys were partitioned: move the plain
+-- tables aside; further down each is attached as its table's oldest partition
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_class WHERE oid = to_regclass('webhook_logs') AND relkind = 'r') THEN
+        ALTER TABLE webhook_logs DROP CONSTRAINT webhook_logs_pkey;
+        DROP INDEX IF EXISTS idx_webhook_logs_merchant_id, idx_webhook_logs_merchant_created, idx_webhook_logs_merchant_status_created,
+            idx_webhook_logs_merchant_event_created, idx_webhook_logs_status, idx_webhook_logs_retry;
+        ALTER TABLE webhook_logs RENAME TO webhook_logs_legacy;
+    END IF;
+    IF EXISTS (SELECT 1 FROM pg_class WHERE oid = to_regclass('idempotency_keys') AND relkind = 'r') THEN
+        ALTER TABLE idempotency_keys DROP CONSTRAINT idempotency_keys_pkey;
+        DROP INDEX IF EXISTS idx_idempotency_keys_expires_at;
+        ALTER TABLE idempotency_keys RENAME TO idempotency_keys_legacy;
+    END IF;
+END $$;
+
+-- Partitioned by week of created_at; the worker creates partitions ahead and drops (or archives)
+-- them after WEBHOOK_LOG_RETENTION_DAYS. Ids are UUIDv7, so retries derive created_at from the id
 CREATE TABLE IF NOT EXISTS webhook_logs (
-    id UUID PRIMARY KEY DEFAULT gen_random_uuid(),
+    id UUID NOT NULL DEFAULT gen_random_uuid(),
     merchant_id UUID NOT NULL REFERENCES merchants(id),
     event VARCHAR(50) NOT NULL,
     payload JSONB NOT NULL,
@@ -47,23 +74,87 @@ CREATE TABLE IF NOT EXISTS webhook_logs (
     next_retry_at TIMESTAMP,
     response_code INTEGER,
     response_body TEXT,
-    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-);
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id, created_at)
+) PARTITION BY RANGE (created_at);
+-- Catches rows when maintenance has fallen behind; moved into their partition when it is created
+CREATE TABLE IF NOT EXISTS webhook_logs_default PARTITION OF webhook_logs DEFAULT;
 
+-- Partitioned by day of created_at and dropped once every row in a partition has expired.
+-- Uniqueness of live keys is enforced by a per-key advisory lock in Idempotency.record
 CREATE TABLE IF NOT EXISTS idempotency_keys (
-    key VARCHAR(255),
+    key VARCHAR(255) NOT NULL,
     merchant_id UUID NOT NULL REFERENCES merchants(id),
     response JSONB NOT NULL,
-    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
     expires_at TIMESTAMP NOT NULL,
-    PRIMARY KEY (key, merchant_id)
+    PRIMARY KEY (key, merchant_id, created_at)
+) PARTITION BY RANGE (created_at);
+CREATE TABLE IF NOT EXISTS idempotency_keys_default PARTITION OF idempotency_keys DEFAULT;
+
+-- API keys are stored as SHA-256 hex digests; the plaintext is only returned once at creation
+CREATE TABLE IF NOT EXISTS api_keys (
+    key_hash CHAR(64) PRIMARY KEY,
+    merchant_id UUID NOT NULL REFERENCES merchants(id),
+    key_prefix VARCHAR(16) NOT NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    revoked_at TIMESTAMP
+);
+
+-- Jobs written in the same transaction as the row that needs them; drained to Redis by the API and worker outbox relays
+CREATE TABLE IF NOT EXISTS job_outbox (
+    id BIGSERIAL PRIMARY KEY,
+    job_type VARCHAR(50) NOT NULL,
+    merchant_id UUID,
+    data TEXT NOT NULL,
+    trace_id VARCHAR(32),
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
 );
 
+-- Columns added after the first release, for databases created from an older schema
+ALTER TABLE merchants ADD COLUMN IF NOT EXISTS webhook_batch_size INTEGER NOT NULL DEFAULT 0;
+ALTER TABLE merchants ADD COLUMN IF NOT EXISTS webhook_batch_window_ms INTEGER NOT NULL DEFAULT 1000;
+ALTER TABLE merchants ADD COLUMN IF NOT EXISTS job_weight INTEGER NOT NULL DEFAULT 1 CHECK (job_weight > 0);
+ALTER TABLE merchants ADD COLUMN IF NOT EXISTS job_max_in_flight INTEGER NOT NULL DEFAULT 0 CHECK (job_max_in_flight >= 0);
+ALTER TABLE job_outbox ADD COLUMN IF NOT EXISTS merchant_id UUID;
+ALTER TABLE job_outbox ADD COLUMN IF NOT EXISTS trace_id VARCHAR(32);
+ALTER TABLE payments ADD COLUMN IF NOT EXISTS refunded_amount INTEGER NOT NULL DEFAULT 0 CHECK (refunded_amount >= 0);
+UPDATE payments p SET refunded_amount = r.total
+FROM (SELECT payment_id, SUM(amount) AS total FROM refunds WHERE status != 'failed' GROUP BY payment_id) r
+WHERE p.id = r.payment_id AND p.refunded_amount <> r.total;
+
 CREATE INDEX IF NOT EXISTS idx_refunds_payment_id ON refunds(payment_id);
-CREATE INDEX IF NOT EXISTS idx_webhook_logs_merchant_id ON webhook_logs(merchant_id);
-CREATE INDEX IF NOT EXISTS idx_webhook_logs_status ON webhook_logs(status);
+CREATE INDEX IF NOT EXISTS idx_api_keys_merchant_id ON api_keys(merchant_id);
+-- Expiry is handled by dropping partitions, so nothing needs an expires_at index
+DROP INDEX IF EXISTS idx_idempotency_keys_expires_at;
+-- Keyset pagination for GET /webhooks: (merchant, [filter,] created_at, id) in listing order
+DROP INDEX IF EXISTS idx_webhook_logs_merchant_id;
+CREATE INDEX IF NOT EXISTS idx_webhook_logs_merchant_created ON webhook_logs(merchant_id, created_at DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_webhook_logs_merchant_status_created ON webhook_logs(merchant_id, status, created_at DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_webhook_logs_merchant_event_created ON webhook_logs(merchant_id, event, created_at DESC, id DESC);
+-- Status-only lookups are either per merchant (above) or pending retries (below)
+DROP INDEX IF EXISTS idx_webhook_logs_status;
 CREATE INDEX IF NOT EXISTS idx_webhook_logs_retry ON webhook_logs(next_retry_at) WHERE status = 'pending';
 
+-- Attach the tables moved aside above, covering everything up to the end of the current period
+DO $$
+BEGIN
+    IF to_regclass('webhook_logs_legacy') IS NOT NULL
+            AND NOT EXISTS (SELECT 1 FROM pg_inherits WHERE inhrelid = 'webhook_logs_legacy'::regclass) THEN
+        UPDATE webhook_logs_legacy SET created_at = CURRENT_TIMESTAMP WHERE created_at IS NULL;
+        ALTER TABLE webhook_logs_legacy ALTER COLUMN created_at SET NOT NULL;
+        EXECUTE format('ALTER TABLE webhook_logs ATTACH PARTITION webhook_logs_legacy FOR VALUES FROM (MINVALUE) TO (%L)',
+            date_trunc('week', LOCALTIMESTAMP) + INTERVAL '1 week');
+    END IF;
+    IF to_regclass('idempotency_keys_legacy') IS NOT NULL
+            AND NOT EXISTS (SELECT 1 FROM pg_inherits WHERE inhrelid = 'idempotency_keys_legacy'::regclass) THEN
+        UPDATE idempotency_keys_legacy SET created_at = CURRENT_TIMESTAMP WHERE created_at IS NULL;
+        ALTER TABLE idempotency_keys_legacy ALTER COLUMN created_at SET NOT NULL;
+        EXECUTE format('ALTER TABLE idempotency_keys ATTACH PARTITION idempotency_keys_legacy FOR VALUES FROM (MINVALUE) TO (%L)',
+            date_trunc('day', LOCALTIMESTAMP) + INTERVAL '1 day');
+    END IF;
+END $$;
+
 -- Seed Data (Email only, let DB generate the ID)
 INSERT INTO merchants (email, password_hash, name, webhook_secret, webhook_url)
 VALUES (
@@ -74,4 +165,11 @@ VALUES (
     'http://host.docker.internal:4000/webhook'
 )
 ON CONFLICT (email) 
-DO UPDATE SET webhook_secret = 'whsec_test_abc123';
\ No newline at end of file
+DO UPDATE SET webhook_secret = 'whsec_test_abc123';
+
+-- Test keys used by the dashboard, SDK demo and smoke tests
+INSERT INTO api_keys (key_hash, merchant_id, key_prefix)
+SELECT encode(digest(k, 'sha256'), 'hex'), m.id, left(k, 13)
+FROM merchants m, (VALUES ('key_test_123'), ('key_test_abc123')) AS keys(k)
+WHERE m.email = 'test@example.com'
+ON CONFLICT (key_hash) DO NOTHING;